@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Reads back the format produced by AstWriter. Anything that doesn't match
+// the expected hash, version or checksum, or that doesn't decode into a
+// well-formed tree, is rejected with an IOException.
+public class AstReader {
+		private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+		private final ByteBuffer in;
+		private final Map<Expr, Integer> locals = new HashMap<>();
+		private Object[] constants;
+
+		private AstReader(ByteBuffer in) {
+				this.in = in;
+		}
+
+		public static List<Stmt> read(byte[] data, byte[] hash, Interpreter interpreter) throws IOException {
+				if(data.length < 8) throw new IOException("truncated cache entry");
+
+				CRC32 crc = new CRC32();
+				crc.update(data, 0, data.length - 8);
+				if(ByteBuffer.wrap(data, data.length - 8, 8).getLong() != crc.getValue())
+						throw new IOException("cache entry checksum mismatch");
+
+				ByteBuffer in = ByteBuffer.wrap(data, 0, data.length - 8);
+				try {
+						if(in.getInt() != AstWriter.MAGIC) throw new IOException("not a cache entry");
+						if((in.getShort() & 0xffff) != AstWriter.VERSION) throw new IOException("stale cache entry version");
+
+						byte[] storedHash = new byte[hash.length];
+						in.get(storedHash);
+						if(!Arrays.equals(storedHash, hash)) throw new IOException("cache entry for a different source");
+
+						AstReader reader = new AstReader(in);
+						reader.constantPool();
+						in.getInt();
+						List<Stmt> statements = reader.statements();
+						if(in.hasRemaining()) throw new IOException("trailing bytes in cache entry");
+
+						interpreter.locals.putAll(reader.locals);
+						return statements;
+				}
+				catch(BufferUnderflowException e) {
+						throw new IOException("truncated cache entry");
+				}
+		}
+
+		private void constantPool() throws IOException {
+				constants = new Object[count()];
+				for(int i = 0; i < constants.length; ++i) {
+						int tag = in.get() & 0xff;
+						if(tag == AstWriter.CONSTANT_STRING) {
+								byte[] utf8 = new byte[count()];
+								in.get(utf8);
+								constants[i] = new String(utf8, StandardCharsets.UTF_8);
+						}
+						else if(tag == AstWriter.CONSTANT_NUMBER) {
+								constants[i] = in.getDouble();
+						}
+						else {
+								throw new IOException("bad constant tag " + tag);
+						}
+				}
+		}
+
+		private List<Stmt> statements() throws IOException {
+				int count = count();
+				List<Stmt> statements = new ArrayList<Stmt>(count);
+				for(int i = 0; i < count; ++i) statements.add(required(statement()));
+				return statements;
+		}
+
+		private Stmt statement() throws IOException {
+				int tag = in.get() & 0xff;
+				switch(tag) {
+						case AstWriter.NULL:
+								return null;
+						case AstWriter.EXPRESSION:
+								return new Stmt.Expression(required(expression()));
+						case AstWriter.IF:
+								return new Stmt.If(required(expression()), required(statement()), statement());
+						case AstWriter.WHILE:
+								return new Stmt.While(required(expression()), required(statement()));
+						case AstWriter.PRINT:
+								return new Stmt.Print(required(expression()));
+						case AstWriter.VAR:
+								return new Stmt.Var(token(), expression());
+						case AstWriter.BLOCK:
+								return new Stmt.Block(statements());
+						case AstWriter.BREAK:
+								return new Stmt.Break(expression());
+						case AstWriter.FUNCTION:
+								return new Stmt.Function(token(), tokens(), statements(), flag());
+						case AstWriter.RETURN:
+								return new Stmt.Return(token(), expression());
+						case AstWriter.YIELD:
+								return new Stmt.Yield(token(), expression());
+						case AstWriter.CLASS: {
+								Token name = token();
+								List<Stmt.Function> methods = new ArrayList<>();
+								for(Stmt method : statements()) {
+										if(!(method instanceof Stmt.Function)) throw new IOException("class member is not a method");
+										methods.add((Stmt.Function) method);
+								}
+								Expr superclass = expression();
+								if(superclass != null && !(superclass instanceof Expr.Variable)) throw new IOException("bad superclass");
+								return new Stmt.Class(name, methods, (Expr.Variable) superclass);
+						}
+				}
+				throw new IOException("bad statement tag " + tag);
+		}
+
+		private Expr expression() throws IOException {
+				int tag = in.get() & 0xff;
+				switch(tag) {
+						case AstWriter.NULL:
+								return null;
+						case AstWriter.BINARY:
+								return new Expr.Binary(required(expression()), token(), required(expression()));
+						case AstWriter.GROUPING:
+								return new Expr.Grouping(required(expression()));
+						case AstWriter.LITERAL:
+								return new Expr.Literal(value());
+						case AstWriter.UNARY:
+								return new Expr.Unary(token(), required(expression()));
+						case AstWriter.VARIABLE:
+								return depth(new Expr.Variable(token()));
+						case AstWriter.ASSIGN:
+								return depth(new Expr.Assign(token(), required(expression())));
+						case AstWriter.LOGICAL:
+								return new Expr.Logical(required(expression()), token(), required(expression()));
+						case AstWriter.CALL: {
+								Expr callee = required(expression());
+								Token paren = token();
+								int count = count();
+								List<Expr> arguments = new ArrayList<Expr>(count);
+								for(int i = 0; i < count; ++i) arguments.add(required(expression()));
+								return new Expr.Call(callee, paren, arguments);
+						}
+						case AstWriter.GET:
+								return new Expr.Get(required(expression()), token());
+						case AstWriter.SET:
+								return new Expr.Set(required(expression()), token(), required(expression()));
+						case AstWriter.THIS:
+								return depth(new Expr.This(token()));
+						case AstWriter.SUPER:
+								return depth(new Expr.Super(token(), token()));
+						case AstWriter.ARRAY: {
+								Token bracket = token();
+								int count = count();
+								List<Expr> elements = new ArrayList<Expr>(count);
+								for(int i = 0; i < count; ++i) elements.add(required(expression()));
+								return new Expr.Array(bracket, elements);
+						}
+						case AstWriter.MAP: {
+								Token brace = token();
+								int count = count();
+								List<Expr> keys = new ArrayList<Expr>(count);
+								List<Expr> values = new ArrayList<Expr>(count);
+								for(int i = 0; i < count; ++i) {
+										keys.add(required(expression()));
+										values.add(required(expression()));
+								}
+								return new Expr.Map(brace, keys, values);
+						}
+						case AstWriter.INDEX:
+								return new Expr.Index(required(expression()), token(), required(expression()));
+						case AstWriter.INDEX_SET:
+								return new Expr.IndexSet(required(expression()), token(), required(expression()), required(expression()));
+				}
+				throw new IOException("bad expression tag " + tag);
+		}
+
+		private Expr depth(Expr expr) throws IOException {
+				int distance = in.getInt();
+				if(distance < -1) throw new IOException("bad resolution depth");
+				if(distance >= 0) locals.put(expr, distance);
+				return expr;
+		}
+
+		private Token token() throws IOException {
+				int type = in.get() & 0xff;
+				if(type >= TOKEN_TYPES.length) throw new IOException("bad token type " + type);
+				Object lexeme = constant();
+				if(!(lexeme instanceof String)) throw new IOException("bad lexeme");
+				return new Token(TOKEN_TYPES[type], (String) lexeme, value(), in.getInt());
+		}
+
+		private List<Token> tokens() throws IOException {
+				int count = count();
+				List<Token> tokens = new ArrayList<Token>(count);
+				for(int i = 0; i < count; ++i) tokens.add(token());
+				return tokens;
+		}
+
+		private Object value() throws IOException {
+				int tag = in.get() & 0xff;
+				switch(tag) {
+						case AstWriter.VALUE_NIL: return null;
+						case AstWriter.VALUE_TRUE: return true;
+						case AstWriter.VALUE_FALSE: return false;
+						case AstWriter.VALUE_CONSTANT: return constant();
+				}
+				throw new IOException("bad value tag " + tag);
+		}
+
+		private Object constant() throws IOException {
+				int index = in.getInt();
+				if(index < 0 || index >= constants.length) throw new IOException("bad constant index " + index);
+				return constants[index];
+		}
+
+		private boolean flag() throws IOException {
+				int flag = in.get() & 0xff;
+				if(flag > 1) throw new IOException("bad flag " + flag);
+				return flag == 1;
+		}
+
+		private int count() throws IOException {
+				int count = in.getInt();
+				if(count < 0 || count > in.remaining()) throw new IOException("bad length " + count);
+				return count;
+		}
+
+		private <T> T required(T node) throws IOException {
+				if(node == null) throw new IOException("missing node");
+				return node;
+		}
+}
@@ -0,0 +1,371 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Serializes a resolved program into the .loxc format:
+//
+//   magic, version, source hash,
+//   constant pool (strings and numbers used by tokens and literals),
+//   statements, with the resolved depth stored after each variable access,
+//   CRC32 of everything before it.
+public class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+		static final int MAGIC = 0x4c4f5843;
+		static final int VERSION = 4;
+
+		static final int NULL = 0;
+		static final int BINARY = 1, GROUPING = 2, LITERAL = 3, UNARY = 4, VARIABLE = 5, ASSIGN = 6,
+				LOGICAL = 7, CALL = 8, GET = 9, SET = 10, THIS = 11, SUPER = 12, ARRAY = 13, INDEX = 14, INDEX_SET = 15,
+				MAP = 16;
+		static final int EXPRESSION = 1, IF = 2, WHILE = 3, PRINT = 4, VAR = 5, BLOCK = 6,
+				BREAK = 7, FUNCTION = 8, RETURN = 9, CLASS = 10, YIELD = 11;
+
+		static final int VALUE_NIL = 0, VALUE_TRUE = 1, VALUE_FALSE = 2, VALUE_CONSTANT = 3;
+		static final int CONSTANT_STRING = 0, CONSTANT_NUMBER = 1;
+
+		private final Map<Expr, Integer> locals;
+		private final Map<Object, Integer> constantIndex = new HashMap<>();
+		private final List<Object> constants = new ArrayList<>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(body);
+
+		private AstWriter(Map<Expr, Integer> locals) {
+				this.locals = locals;
+		}
+
+		public static byte[] write(byte[] hash, List<Stmt> statements, Map<Expr, Integer> locals) {
+				AstWriter writer = new AstWriter(locals);
+				writer.statements(statements);
+				return writer.finish(hash);
+		}
+
+		private byte[] finish(byte[] hash) {
+				ByteArrayOutputStream file = new ByteArrayOutputStream(body.size() + 1024);
+				out = new DataOutputStream(file);
+				try {
+						out.writeInt(MAGIC);
+						out.writeShort(VERSION);
+						out.write(hash);
+						out.writeInt(constants.size());
+						for(Object constant : constants) {
+								if(constant instanceof String) {
+										byte[] utf8 = ((String) constant).getBytes(StandardCharsets.UTF_8);
+										out.writeByte(CONSTANT_STRING);
+										out.writeInt(utf8.length);
+										out.write(utf8);
+								}
+								else {
+										out.writeByte(CONSTANT_NUMBER);
+										out.writeDouble((double) constant);
+								}
+						}
+						out.writeInt(body.size());
+						body.writeTo(out);
+
+						CRC32 crc = new CRC32();
+						crc.update(file.toByteArray());
+						out.writeLong(crc.getValue());
+				}
+				catch(IOException e) {
+						throw new UncheckedIOException(e);
+				}
+				return file.toByteArray();
+		}
+
+		private void statements(List<? extends Stmt> statements) {
+				u32(statements.size());
+				for(Stmt s : statements) s.accept(this);
+		}
+
+		private void statement(Stmt stmt) {
+				if(stmt == null) u8(NULL);
+				else stmt.accept(this);
+		}
+
+		private void expression(Expr expr) {
+				if(expr == null) u8(NULL);
+				else expr.accept(this);
+		}
+
+		private void depth(Expr expr) {
+				Integer distance = locals.get(expr);
+				u32(distance == null ? -1 : distance);
+		}
+
+		private void token(Token token) {
+				u8(token.type.ordinal());
+				constant(token.lexeme);
+				value(token.literal);
+				u32(token.line);
+		}
+
+		private void tokens(List<Token> tokens) {
+				u32(tokens.size());
+				for(Token token : tokens) token(token);
+		}
+
+		private void value(Object value) {
+				if(value == null) u8(VALUE_NIL);
+				else if(value.equals(true)) u8(VALUE_TRUE);
+				else if(value.equals(false)) u8(VALUE_FALSE);
+				else {
+						u8(VALUE_CONSTANT);
+						constant(value);
+				}
+		}
+
+		private void constant(Object value) {
+				Integer index = constantIndex.get(value);
+				if(index == null) {
+						index = constants.size();
+						constants.add(value);
+						constantIndex.put(value, index);
+				}
+				u32(index);
+		}
+
+		private void u8(int value) {
+				try { out.writeByte(value); }
+				catch(IOException e) { throw new UncheckedIOException(e); }
+		}
+
+		private void u32(int value) {
+				try { out.writeInt(value); }
+				catch(IOException e) { throw new UncheckedIOException(e); }
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+				u8(BINARY);
+				expression(expr.left);
+				token(expr.operator);
+				expression(expr.right);
+				return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+				u8(GROUPING);
+				expression(expr.expression);
+				return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+				u8(LITERAL);
+				value(expr.value);
+				return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+				u8(UNARY);
+				token(expr.operator);
+				expression(expr.right);
+				return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+				u8(VARIABLE);
+				token(expr.name);
+				depth(expr);
+				return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+				u8(ASSIGN);
+				token(expr.name);
+				expression(expr.value);
+				depth(expr);
+				return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+				u8(LOGICAL);
+				expression(expr.left);
+				token(expr.operator);
+				expression(expr.right);
+				return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+				u8(CALL);
+				expression(expr.callee);
+				token(expr.paren);
+				u32(expr.arguments.size());
+				for(Expr argument : expr.arguments) expression(argument);
+				return null;
+		}
+
+		@Override
+		public Void visitGetExpr(Expr.Get expr) {
+				u8(GET);
+				expression(expr.object);
+				token(expr.name);
+				return null;
+		}
+
+		@Override
+		public Void visitSetExpr(Expr.Set expr) {
+				u8(SET);
+				expression(expr.object);
+				token(expr.name);
+				expression(expr.value);
+				return null;
+		}
+
+		@Override
+		public Void visitThisExpr(Expr.This expr) {
+				u8(THIS);
+				token(expr.keyword);
+				depth(expr);
+				return null;
+		}
+
+		@Override
+		public Void visitSuperExpr(Expr.Super expr) {
+				u8(SUPER);
+				token(expr.keyword);
+				token(expr.method);
+				depth(expr);
+				return null;
+		}
+
+		@Override
+		public Void visitArrayExpr(Expr.Array expr) {
+				u8(ARRAY);
+				token(expr.bracket);
+				u32(expr.elements.size());
+				for(Expr element : expr.elements) expression(element);
+				return null;
+		}
+
+		@Override
+		public Void visitMapExpr(Expr.Map expr) {
+				u8(MAP);
+				token(expr.brace);
+				u32(expr.keys.size());
+				for(int i = 0; i < expr.keys.size(); ++i) {
+						expression(expr.keys.get(i));
+						expression(expr.values.get(i));
+				}
+				return null;
+		}
+
+		@Override
+		public Void visitIndexExpr(Expr.Index expr) {
+				u8(INDEX);
+				expression(expr.object);
+				token(expr.bracket);
+				expression(expr.index);
+				return null;
+		}
+
+		@Override
+		public Void visitIndexSetExpr(Expr.IndexSet expr) {
+				u8(INDEX_SET);
+				expression(expr.object);
+				token(expr.bracket);
+				expression(expr.index);
+				expression(expr.value);
+				return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+				u8(EXPRESSION);
+				expression(stmt.expression);
+				return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+				u8(IF);
+				expression(stmt.condition);
+				statement(stmt.thenBranch);
+				statement(stmt.elseBranch);
+				return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+				u8(WHILE);
+				expression(stmt.condition);
+				statement(stmt.body);
+				return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+				u8(PRINT);
+				expression(stmt.expression);
+				return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+				u8(VAR);
+				token(stmt.name);
+				expression(stmt.initializer);
+				return null;
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+				u8(BLOCK);
+				statements(stmt.statements);
+				return null;
+		}
+
+		@Override
+		public Void visitBreakStmt(Stmt.Break stmt) {
+				u8(BREAK);
+				expression(stmt.condition);
+				return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Stmt.Function stmt) {
+				u8(FUNCTION);
+				token(stmt.name);
+				tokens(stmt.arguments);
+				statements(stmt.body);
+				u8(stmt.generator ? 1 : 0);
+				return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(Stmt.Return stmt) {
+				u8(RETURN);
+				token(stmt.keyword);
+				expression(stmt.value);
+				return null;
+		}
+
+		@Override
+		public Void visitClassStmt(Stmt.Class stmt) {
+				u8(CLASS);
+				token(stmt.name);
+				statements(stmt.methods);
+				expression(stmt.superclass);
+				return null;
+		}
+
+		@Override
+		public Void visitYieldStmt(Stmt.Yield stmt) {
+				u8(YIELD);
+				token(stmt.keyword);
+				expression(stmt.value);
+				return null;
+		}
+}
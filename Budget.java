@@ -0,0 +1,104 @@
+// Execution limits for one script. An Interpreter with a budget (shared by
+// all of its forks) charges it
+//
+//   a step for every loop back-edge and every Lox function call,
+//   a check of every Lox function call's depth against maxDepth, counted
+//   separately by each fork, as tasks and workers run on their own stacks,
+//   estimated bytes for every Environment, LoxInstance, concatenated string,
+//   array, vector and map entry the script creates,
+//
+// and the wall time since the budget was created is read every CLOCK_INTERVAL
+// steps and while the event loop waits. Going over any limit throws a
+// RuntimeException, which ends the script as a runtime error.
+//
+// A script that runs out of JVM stack before reaching maxDepth gets a runtime
+// error as well, from LoxFunction.call.
+//
+// Bytes are never given back, as the budget doesn't see what is collected, so
+// the memory limit is on the total a script allocates, not on its live memory.
+//
+// The counters are plain fields: tasks running on other threads may lose a
+// few increments, which only makes the limits slightly lenient. Without a
+// budget Interpreter.budget is null and the checks only test that.
+public class Budget {
+		static final long UNLIMITED = Long.MAX_VALUE;
+		static final int CLOCK_INTERVAL = 1024;
+
+		// Rough sizes on a 64-bit JVM with compressed pointers, including the
+		// HashMap each environment and instance starts with.
+		static final long ENVIRONMENT_BYTES = 96;
+		static final long INSTANCE_BYTES = 64;
+		static final long STRING_BYTES = 40;
+		static final long ARRAY_BYTES = 32;
+		static final long MAP_BYTES = 80;
+		static final long SLOT_BYTES = 8;
+		static final long ENTRY_BYTES = 32;
+
+		final long maxSteps;
+		final long maxBytes;
+		final long maxMillis;
+		final long maxDepth;
+		private final long deadline;
+		private long steps = 0;
+		private long nextCheck;
+		private long bytes = 0;
+
+		Budget(long maxSteps, long maxBytes, long maxMillis, long maxDepth) {
+				this.maxSteps = maxSteps;
+				this.maxBytes = maxBytes;
+				this.maxMillis = maxMillis;
+				this.maxDepth = maxDepth;
+				this.deadline = maxMillis >= UNLIMITED / 2000000 ? UNLIMITED : System.nanoTime() + maxMillis * 1000000;
+				this.nextCheck = Math.min(CLOCK_INTERVAL, maxSteps);
+		}
+
+		// The same limits with fresh counters and clock, for another script.
+		Budget(Budget limits) {
+				this(limits.maxSteps, limits.maxBytes, limits.maxMillis, limits.maxDepth);
+		}
+
+		public boolean isUnlimited() {
+				return maxSteps == UNLIMITED && maxBytes == UNLIMITED && maxMillis == UNLIMITED && maxDepth == UNLIMITED;
+		}
+
+		public void step() {
+				if(++steps >= nextCheck) check();
+		}
+
+		// depth is that of the call being made, the outermost being 1.
+		public void enter(int depth) {
+				if(depth > maxDepth) throw new RuntimeException("Call depth budget of " + maxDepth + " exceeded");
+		}
+
+		public void allocate(long size) {
+				bytes += size;
+				if(bytes > maxBytes) throw new RuntimeException("Memory budget of " + maxBytes + " bytes exceeded");
+		}
+
+		public void allocateString(String s) {
+				allocate(STRING_BYTES + s.length());
+		}
+
+		public long steps() {
+				return steps;
+		}
+
+		public long bytes() {
+				return bytes;
+		}
+
+		// System.nanoTime() at which the time budget runs out, or UNLIMITED.
+		long deadline() {
+				return deadline;
+		}
+
+		void checkClock() {
+				if(deadline != UNLIMITED && System.nanoTime() - deadline > 0) throw new RuntimeException("Time budget of " + maxMillis + " ms exceeded");
+		}
+
+		private void check() {
+				if(steps > maxSteps) throw new RuntimeException("Step budget of " + maxSteps + " exceeded");
+				checkClock();
+				nextCheck = steps >= maxSteps - CLOCK_INTERVAL ? maxSteps + 1 : steps + CLOCK_INTERVAL;
+		}
+}
@@ -1,16 +1,20 @@
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 
 public class Environment {
 		public Map<String, Object> values = new HashMap<String, Object>();
 		public Environment enclosing;
+		private boolean shared = false;
 
 		Environment() {
 				enclosing = null;
+				if(LoxMetrics.ENABLED) LoxMetrics.environments.increment();
 		}
 
 		Environment(Environment enclosing) {
 				this.enclosing = enclosing;
+				if(LoxMetrics.ENABLED) LoxMetrics.environments.increment();
 		}
 
 		public void define(String name, Object value) {
@@ -46,6 +50,14 @@ public class Environment {
 				return ret;
 		}
 
+		// Makes the bindings safe to update from several threads. Must be called
+		// before the environment is handed to another thread.
+		public void share() {
+				if(shared) return;
+				values = Collections.synchronizedMap(values);
+				shared = true;
+		}
+
 		public void display() {
 				values.forEach((key, value) -> System.out.println(key + ":" + value));
 		}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Timers and asynchronous file I/O for one program. Natives only register
+// work; once the program's statements have run, Interpreter.interpret calls
+// run(), which executes the timer and completion callbacks one at a time on
+// the interpreter's thread until nothing is pending. Tasks and generators
+// share the loop of the interpreter they were forked from, and run() also
+// waits for the spawned tasks that are still running, as they may add work.
+//
+//   setTimeout(fn, ms)            calls fn() after ms milliseconds, returns an id
+//   clearTimeout(id)              cancels a timer that hasn't fired yet
+//   readFile(path, fn)            calls fn(error, contents)
+//   writeFile(path, data, fn)     calls fn(error)
+//
+// error is nil on success and the failure message otherwise.
+// readFile throws a runtime error for files of 2 GB or more.
+public class EventLoop {
+		private static class Timer implements Comparable<Timer> {
+				final long deadline;
+				final long id;
+				final LoxCallable callback;
+
+				Timer(long deadline, long id, LoxCallable callback) {
+						this.deadline = deadline;
+						this.id = id;
+						this.callback = callback;
+				}
+
+				@Override
+				public int compareTo(Timer other) {
+						if(deadline != other.deadline) return Long.compare(deadline, other.deadline);
+						return Long.compare(id, other.id);
+				}
+		}
+
+		// The largest byte array most JVMs allocate.
+		static final long MAX_FILE_BYTES = Integer.MAX_VALUE - 8;
+
+		private final Interpreter interpreter;
+		private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+		private final Deque<Runnable> completions = new ArrayDeque<>();
+		private int pendingIo = 0;
+		private long nextTimerId = 1;
+
+		EventLoop(Interpreter interpreter) {
+				this.interpreter = interpreter;
+		}
+
+		static void defineNatives(Environment globals) {
+				globals.define("setTimeout", new NativeFunction("setTimeout", 2, (interpreter, arguments) ->
+						interpreter.events.setTimeout(callback(arguments.get(0), 0), number(arguments.get(1)))));
+				globals.define("clearTimeout", new NativeFunction("clearTimeout", 1, (interpreter, arguments) -> {
+						interpreter.events.clearTimeout(number(arguments.get(0)));
+						return null;
+				}));
+				globals.define("readFile", new NativeFunction("readFile", 2, (interpreter, arguments) -> {
+						interpreter.events.readFile(string(arguments.get(0)), callback(arguments.get(1), 2));
+						return null;
+				}));
+				globals.define("writeFile", new NativeFunction("writeFile", 3, (interpreter, arguments) -> {
+						interpreter.events.writeFile(string(arguments.get(0)), string(arguments.get(1)), callback(arguments.get(2), 1));
+						return null;
+				}));
+		}
+
+		public synchronized double setTimeout(LoxCallable callback, double milliseconds) {
+				long deadline = System.nanoTime() + (long) (Math.max(0, milliseconds) * 1e6);
+				Timer timer = new Timer(deadline, nextTimerId++, callback);
+				timers.add(timer);
+				notifyAll();
+				return timer.id;
+		}
+
+		public synchronized void clearTimeout(double id) {
+				timers.removeIf(timer -> timer.id == (long) id);
+		}
+
+		public void readFile(String path, LoxCallable callback) {
+				AsynchronousFileChannel channel;
+				long size;
+				try {
+						channel = AsynchronousFileChannel.open(interpreter.lox.resolve(path), StandardOpenOption.READ);
+						size = channel.size();
+				}
+				catch(IOException | RuntimeException e) {
+						started();
+						complete(callback, e.toString(), null);
+						return;
+				}
+				if(size > MAX_FILE_BYTES) {
+						close(channel);
+						throw new RuntimeException("readFile can't read " + path + ", it has " + size + " bytes");
+				}
+
+				ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+				started();
+				channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+						@Override
+						public void completed(Integer read, Void attachment) {
+								if(read >= 0 && buffer.hasRemaining()) {
+										channel.read(buffer, buffer.position(), null, this);
+										return;
+								}
+								close(channel);
+								complete(callback, null, new String(buffer.array(), 0, buffer.position(), Charset.defaultCharset()));
+						}
+
+						@Override
+						public void failed(Throwable e, Void attachment) {
+								close(channel);
+								complete(callback, e.toString());
+						}
+				});
+		}
+
+		public void writeFile(String path, String data, LoxCallable callback) {
+				AsynchronousFileChannel channel;
+				try {
+						channel = AsynchronousFileChannel.open(interpreter.lox.resolve(path),
+								StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				}
+				catch(IOException | RuntimeException e) {
+						started();
+						complete(callback, e.toString());
+						return;
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(data.getBytes(Charset.defaultCharset()));
+				started();
+				channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+						@Override
+						public void completed(Integer written, Void attachment) {
+								if(buffer.hasRemaining()) {
+										channel.write(buffer, buffer.position(), null, this);
+										return;
+								}
+								close(channel);
+								complete(callback, (Object) null);
+						}
+
+						@Override
+						public void failed(Throwable e, Void attachment) {
+								close(channel);
+								complete(callback, e.toString());
+						}
+				});
+		}
+
+		// Runs callbacks until no timers or I/O operations are left.
+		public void run() {
+				Runnable next;
+				while((next = next()) != null) {
+						if(interpreter.slot != null) interpreter.slot.resume();
+						next.run();
+				}
+				if(interpreter.slot != null) interpreter.slot.resume();
+		}
+
+		private synchronized Runnable next() {
+				try {
+						while(true) {
+								if(!completions.isEmpty()) return completions.poll();
+
+								Timer timer = timers.peek();
+								if(timer == null && pendingIo == 0 && !interpreter.lox.hasLiveTasks()) return null;
+
+								long now = System.nanoTime();
+								if(timer != null && timer.deadline <= now) {
+										timers.poll();
+										return () -> timer.callback.call(interpreter, Arrays.asList());
+								}
+
+								// Don't wait past the end of the script's time budget.
+								Budget budget = interpreter.budget;
+								long until = timer == null ? Budget.UNLIMITED : timer.deadline;
+								if(budget != null) {
+										budget.checkClock();
+										long deadline = budget.deadline();
+										if(deadline != Budget.UNLIMITED && (until == Budget.UNLIMITED || deadline - until < 0)) until = deadline;
+								}
+
+								if(interpreter.slot != null) interpreter.slot.pause();
+								if(until == Budget.UNLIMITED) wait();
+								else wait((until - now) / 1000000, (int) Math.max(1, (until - now) % 1000000));
+						}
+				}
+				catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException("event loop interrupted");
+				}
+		}
+
+		// Called when a spawned task ends.
+		synchronized void wake() {
+				notifyAll();
+		}
+
+		private synchronized void started() {
+				pendingIo++;
+		}
+
+		private synchronized void complete(LoxCallable callback, Object... arguments) {
+				pendingIo--;
+				List<Object> values = Arrays.asList(arguments);
+				completions.add(() -> callback.call(interpreter, values));
+				notifyAll();
+		}
+
+		private static void close(AsynchronousFileChannel channel) {
+				try {
+						channel.close();
+				}
+				catch(IOException e) {
+				}
+		}
+
+		private static LoxCallable callback(Object value, int arity) {
+				if(!(value instanceof LoxCallable) || ((LoxCallable) value).arity() != arity)
+						throw new RuntimeException("Expected a callback taking " + arity + " arguments");
+				return (LoxCallable) value;
+		}
+
+		private static double number(Object value) {
+				if(value instanceof Double) return (double) value;
+				throw new RuntimeException("Expected a number");
+		}
+
+		private static String string(Object value) {
+				if(value instanceof String) return (String) value;
+				throw new RuntimeException("Expected a string");
+		}
+}
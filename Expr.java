@@ -16,6 +16,10 @@ abstract class Expr {
 				T visitSetExpr(Set expr);
 				T visitThisExpr(This expr);
 				T visitSuperExpr(Super expr);
+				T visitArrayExpr(Array expr);
+				T visitIndexExpr(Index expr);
+				T visitIndexSetExpr(IndexSet expr);
+				T visitMapExpr(Map expr);
 		}
 
 		public static class Binary extends Expr{
@@ -198,4 +202,72 @@ abstract class Expr {
 				}
 		}
 
+		public static class Array extends Expr{
+				Token bracket;
+				List<Expr> elements;
+
+				Array(Token bracket, List<Expr> elements) {
+						this.bracket = bracket;
+						this.elements = elements;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						return visitor.visitArrayExpr(this);
+				}
+		}
+
+		public static class Index extends Expr{
+				Expr object;
+				Token bracket;
+				Expr index;
+
+				Index(Expr object, Token bracket, Expr index) {
+						this.object = object;
+						this.bracket = bracket;
+						this.index = index;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						return visitor.visitIndexExpr(this);
+				}
+		}
+
+		public static class IndexSet extends Expr{
+				Expr object;
+				Token bracket;
+				Expr index;
+				Expr value;
+
+				IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+						this.object = object;
+						this.bracket = bracket;
+						this.index = index;
+						this.value = value;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						return visitor.visitIndexSetExpr(this);
+				}
+		}
+
+		public static class Map extends Expr{
+				Token brace;
+				List<Expr> keys;
+				List<Expr> values;
+
+				Map(Token brace, List<Expr> keys, List<Expr> values) {
+						this.brace = brace;
+						this.keys = keys;
+						this.values = values;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						return visitor.visitMapExpr(this);
+				}
+		}
+
 }
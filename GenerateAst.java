@@ -19,7 +19,11 @@ public class GenerateAst {
 					"Get      : Expr object, Token name",
 					"Set      : Expr object, Token name, Expr value",
 					"This     : Token keyword",
-					"Super    : Token keyword, Token method"
+					"Super    : Token keyword, Token method",
+					"Array    : Token bracket, List<Expr> elements",
+					"Index    : Expr object, Token bracket, Expr index",
+					"IndexSet : Expr object, Token bracket, Expr index, Expr value",
+					"Map      : Token brace, List<Expr> keys, List<Expr> values"
 				));
 
 				defineAst(output_dir, "Stmt", Arrays.asList(
@@ -30,9 +34,10 @@ public class GenerateAst {
 					"Var        : Token name, Expr initializer",
 					"Block      : List<Stmt> statements",
 					"Break      : Expr condition",
-					"Function   : Token name, List<Token> arguments, List<Stmt> body",
+					"Function   : Token name, List<Token> arguments, List<Stmt> body, boolean generator",
 					"Return     : Token keyword, Expr value",
-					"Class      : Token name, List<Stmt.Function> methods, Expr.Variable superclass"
+					"Class      : Token name, List<Stmt.Function> methods, Expr.Variable superclass",
+					"Yield      : Token keyword, Expr value"
 				));
 		}
 
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Execution counters for --instrument. register() walks a resolved program
+// and gives every statement other than a block a counter for its line, and
+// every function a FunctionStats. The Interpreter, when its instrumentation
+// is set, counts each registered statement it executes, and LoxFunction.call
+// times the calls of registered functions, measuring total and self time.
+// The tree itself is left as the parser built it.
+//
+// Generator bodies aren't registered, since LoxGenerator runs their
+// statements itself.
+public class Instrumentation {
+		static class FunctionStats {
+				final String name;
+				final int line;
+				final LongAdder calls = new LongAdder();
+				final LongAdder totalNanos = new LongAdder();
+				final LongAdder selfNanos = new LongAdder();
+
+				FunctionStats(String name, int line) {
+						this.name = name;
+						this.line = line;
+				}
+		}
+
+		// A timed call in progress, on the calling thread.
+		public static class Call {
+				private static final ThreadLocal<Deque<Call>> ACTIVE = ThreadLocal.withInitial(ArrayDeque::new);
+
+				private final FunctionStats stats;
+				private final long start;
+				private long childNanos = 0;
+
+				private Call(FunctionStats stats) {
+						this.stats = stats;
+						ACTIVE.get().push(this);
+						this.start = System.nanoTime();
+				}
+
+				public void exit() {
+						long elapsed = System.nanoTime() - start;
+						Deque<Call> active = ACTIVE.get();
+						active.pop();
+						if(!active.isEmpty()) active.peek().childNanos += elapsed;
+						stats.calls.increment();
+						stats.totalNanos.add(elapsed);
+						stats.selfNanos.add(elapsed - childNanos);
+				}
+		}
+
+		private final List<FunctionStats> functions = new ArrayList<>();
+		private final Map<Integer, LongAdder> lines = new TreeMap<>();
+		// Read by the interpreters while the REPL or --pipeline registers more.
+		private final Map<Stmt, LongAdder> counters = new ConcurrentHashMap<>();
+		private final Map<Stmt.Function, FunctionStats> timed = new ConcurrentHashMap<>();
+
+		public synchronized void register(List<Stmt> statements) {
+				register(statements, null);
+		}
+
+		// Counts an execution of stmt, if it was registered.
+		public void count(Stmt stmt) {
+				LongAdder count = counters.get(stmt);
+				if(count != null) count.increment();
+		}
+
+		// Starts timing a call of function, or returns null if it isn't registered.
+		public Call enter(Stmt.Function function) {
+				FunctionStats stats = timed.get(function);
+				return stats == null ? null : new Call(stats);
+		}
+
+		private void register(List<Stmt> statements, String className) {
+				for(Stmt s : statements) register(s, className);
+		}
+
+		private void register(Stmt stmt, String className) {
+				if(stmt == null) return;
+
+				if(stmt instanceof Stmt.Block) {
+						register(((Stmt.Block) stmt).statements, null);
+						return;
+				}
+				if(stmt instanceof Stmt.If) {
+						Stmt.If branch = (Stmt.If) stmt;
+						register(branch.thenBranch, null);
+						register(branch.elseBranch, null);
+				}
+				else if(stmt instanceof Stmt.While) {
+						register(((Stmt.While) stmt).body, null);
+				}
+				else if(stmt instanceof Stmt.Function) {
+						Stmt.Function function = (Stmt.Function) stmt;
+						if(!function.generator) {
+								String name = className == null ? function.name.lexeme : className + "." + function.name.lexeme;
+								FunctionStats stats = new FunctionStats(name, function.name.line);
+								functions.add(stats);
+								timed.put(function, stats);
+								register(function.body, null);
+						}
+				}
+				else if(stmt instanceof Stmt.Class) {
+						Stmt.Class klass = (Stmt.Class) stmt;
+						for(Stmt.Function method : klass.methods) register(method, klass.name.lexeme);
+				}
+
+				int line = line(stmt);
+				if(className != null || line < 0) return;
+				counters.put(stmt, lines.computeIfAbsent(line, l -> new LongAdder()));
+		}
+
+		// Functions by self time and the most executed lines.
+		public synchronized void report(PrintStream out, int limit) {
+				out.println("     calls    total ms     self ms  function");
+				List<FunctionStats> sorted = new ArrayList<>(functions);
+				sorted.sort(Comparator.comparingLong((FunctionStats f) -> f.selfNanos.sum()).reversed());
+				for(FunctionStats f : sorted.subList(0, Math.min(limit, sorted.size()))) {
+						if(f.calls.sum() == 0) break;
+						out.printf("%10d %11.3f %11.3f  %s:%d%n", f.calls.sum(), f.totalNanos.sum() / 1e6, f.selfNanos.sum() / 1e6, f.name, f.line);
+				}
+
+				out.println();
+				out.println("  executed  line");
+				List<Map.Entry<Integer, LongAdder>> hot = new ArrayList<>(lines.entrySet());
+				hot.sort(Comparator.comparingLong((Map.Entry<Integer, LongAdder> e) -> e.getValue().sum()).reversed());
+				for(Map.Entry<Integer, LongAdder> entry : hot.subList(0, Math.min(limit, hot.size()))) {
+						if(entry.getValue().sum() == 0) break;
+						out.printf("%10d  %d%n", entry.getValue().sum(), entry.getKey());
+				}
+		}
+
+		// kind,name,line,count,total_ns,self_ns with a row per function and per line.
+		public synchronized void writeCsv(Path file) throws IOException {
+				try(PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+						out.println("kind,name,line,count,total_ns,self_ns");
+						for(FunctionStats f : functions) {
+								out.println("function," + f.name + "," + f.line + "," + f.calls.sum() + "," + f.totalNanos.sum() + "," + f.selfNanos.sum());
+						}
+						for(Map.Entry<Integer, LongAdder> entry : lines.entrySet()) {
+								out.println("line,," + entry.getKey() + "," + entry.getValue().sum() + ",,");
+						}
+				}
+		}
+
+		private static int line(Stmt stmt) {
+				if(stmt instanceof Stmt.Expression) return line(((Stmt.Expression) stmt).expression);
+				if(stmt instanceof Stmt.Print) return line(((Stmt.Print) stmt).expression);
+				if(stmt instanceof Stmt.Var) return ((Stmt.Var) stmt).name.line;
+				if(stmt instanceof Stmt.If) return line(((Stmt.If) stmt).condition);
+				if(stmt instanceof Stmt.While) return line(((Stmt.While) stmt).condition);
+				if(stmt instanceof Stmt.Break) return line(((Stmt.Break) stmt).condition);
+				if(stmt instanceof Stmt.Function) return ((Stmt.Function) stmt).name.line;
+				if(stmt instanceof Stmt.Return) return ((Stmt.Return) stmt).keyword.line;
+				if(stmt instanceof Stmt.Class) return ((Stmt.Class) stmt).name.line;
+				if(stmt instanceof Stmt.Yield) return ((Stmt.Yield) stmt).keyword.line;
+				return -1;
+		}
+
+		// Line of the leftmost token of an expression, or -1 if it has none.
+		private static int line(Expr expr) {
+				if(expr == null || expr instanceof Expr.Literal) return -1;
+				if(expr instanceof Expr.Binary) return first(line(((Expr.Binary) expr).left), ((Expr.Binary) expr).operator.line);
+				if(expr instanceof Expr.Logical) return first(line(((Expr.Logical) expr).left), ((Expr.Logical) expr).operator.line);
+				if(expr instanceof Expr.Grouping) return line(((Expr.Grouping) expr).expression);
+				if(expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+				if(expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.line;
+				if(expr instanceof Expr.Assign) return ((Expr.Assign) expr).name.line;
+				if(expr instanceof Expr.Call) return first(line(((Expr.Call) expr).callee), ((Expr.Call) expr).paren.line);
+				if(expr instanceof Expr.Get) return first(line(((Expr.Get) expr).object), ((Expr.Get) expr).name.line);
+				if(expr instanceof Expr.Set) return first(line(((Expr.Set) expr).object), ((Expr.Set) expr).name.line);
+				if(expr instanceof Expr.This) return ((Expr.This) expr).keyword.line;
+				if(expr instanceof Expr.Super) return ((Expr.Super) expr).keyword.line;
+				if(expr instanceof Expr.Array) return ((Expr.Array) expr).bracket.line;
+				if(expr instanceof Expr.Index) return first(line(((Expr.Index) expr).object), ((Expr.Index) expr).bracket.line);
+				if(expr instanceof Expr.IndexSet) return first(line(((Expr.IndexSet) expr).object), ((Expr.IndexSet) expr).bracket.line);
+				if(expr instanceof Expr.Map) return ((Expr.Map) expr).brace.line;
+				return -1;
+		}
+
+		private static int first(int line, int fallback) {
+				return line >= 0 ? line : fallback;
+		}
+}
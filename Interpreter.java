@@ -1,7 +1,9 @@
+import java.io.PrintStream;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
@@ -16,11 +18,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				}
 		}
 
-		public Environment globals = new Environment();
-		public Environment environment = globals;
-		public Map<Expr, Integer> locals = new HashMap<>();
+		public final Lox lox;
+		public final PrintStream out;
+		public Environment globals;
+		public Environment environment;
+		public Map<Expr, Integer> locals;
+		public final EventLoop events;
+		public Profiler profiler;
+		public Budget budget;
+		public Instrumentation instrumentation;
+		// Lox calls in progress on this interpreter, for Budget.enter.
+		public int depth = 0;
+		public Scheduler.Slot slot;
+		private Profiler.ShadowStack shadowStack;
+
+		Interpreter(Lox lox) {
+				this.lox = lox;
+				this.out = lox.out;
+				this.globals = new Environment();
+				this.environment = globals;
+				// The Resolver adds to it while tasks read it, in the REPL and
+				// with --pipeline.
+				this.locals = new ConcurrentHashMap<>();
+				this.events = new EventLoop(this);
 
-		Interpreter() {
 				globals.define("clock", new LoxCallable() {
 						@Override
 						public int arity() { return 0; }
@@ -30,6 +51,49 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 								return (double) System.currentTimeMillis() / 1000.0;
 						}
 				});
+				globals.define("clockNanos", new LoxCallable() {
+						@Override
+						public int arity() { return 0; }
+
+						// Only differences between two readings are meaningful.
+						@Override
+						public Object call(Interpreter interpreter, List<Object> arguments) {
+								return (double) System.nanoTime();
+						}
+				});
+				Tasks.defineNatives(globals);
+				LoxGenerator.defineNatives(globals);
+				EventLoop.defineNatives(globals);
+				LoxArray.defineNatives(globals);
+				LoxMap.defineNatives(globals);
+				LoxParallel.defineNatives(globals);
+				LoxVector.defineNatives(globals);
+		}
+
+		// Interpreter for another task of the same program: it shares the globals
+		// and resolved locals but walks its own environment chain.
+		private Interpreter(Interpreter parent) {
+				this.lox = parent.lox;
+				this.out = parent.out;
+				this.globals = parent.globals;
+				this.environment = globals;
+				this.locals = parent.locals;
+				this.events = parent.events;
+				this.profiler = parent.profiler;
+				this.budget = parent.budget;
+				this.instrumentation = parent.instrumentation;
+				this.slot = parent.slot;
+		}
+
+		public Interpreter fork() {
+				return new Interpreter(this);
+		}
+
+		// The profiler's stack for the current thread; an interpreter normally
+		// stays on one thread, but a generator can be resumed from several.
+		public Profiler.ShadowStack shadowStack() {
+				if(shadowStack == null || shadowStack.thread != Thread.currentThread()) shadowStack = profiler.stack();
+				return shadowStack;
 		}
 
 		public void resolve(Expr expr, int depth) {
@@ -37,30 +101,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 
 		public void interpret(List<Stmt> statements) {
+				interpret(statements, true);
+		}
+
+		// Runs the statements and then, if runEvents is set, the timer and I/O
+		// callbacks they scheduled until none are pending.
+		public void interpret(List<Stmt> statements, boolean runEvents) {
+				interpret(statements, runEvents, false);
+		}
+
+		// Runs the statements and the events like interpret(), and returns the
+		// value of the last statement if it is an expression statement.
+		public Object interpretValue(List<Stmt> statements) {
+				return interpret(statements, true, true);
+		}
+
+		private Object interpret(List<Stmt> statements, boolean runEvents, boolean keepLast) {
+				Object value = null;
 				try {
+						int remaining = statements.size();
 						for(Stmt s : statements) {
-								s.accept(this);
+								if(instrumentation != null) instrumentation.count(s);
+								if(keepLast && --remaining == 0 && s instanceof Stmt.Expression) value = ((Stmt.Expression) s).expression.accept(this);
+								else s.accept(this);
 						}
+						if(runEvents) events.run();
 				}
 				catch(BreakError e) {
-						System.out.println("Can't use break outside of a loop");
-						return;
+						out.println("Can't use break outside of a loop");
+						return null;
 				}
 				catch(RuntimeException e) {
-						Lox.runtimeError(e);
-						return;
+						lox.runtimeError(e);
+						return null;
 				}
+				return value;
 		}
 
 		@Override
 		public Object visitBinaryExpr(Expr.Binary expr) {
 				Object left = expr.left.accept(this);
 				Object right = expr.right.accept(this);
-				checkOperatorTypesOrReturnError(expr.operator, left, right);
+				return binary(expr.operator, left, right);
+		}
 
-				switch(expr.operator.type) {
+		public Object binary(Token operator, Object left, Object right) {
+				checkOperatorTypesOrReturnError(operator, left, right);
+
+				switch(operator.type) {
 						case PLUS:
-								if(left instanceof String) return (String) left + (String) right;
+								if(left instanceof String) {
+										String s = (String) left + (String) right;
+										if(budget != null) budget.allocateString(s);
+										return s;
+								}
 								if(left instanceof Double) return (double) left + (double) right;
 						case MINUS:
 								return (double) left - (double) right;
@@ -137,10 +231,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 		@Override
 		public Object visitGetExpr(Expr.Get expr) {
-				Object object = expr.object.accept(this);
+				return property(expr.object.accept(this), expr.name);
+		}
 
+		public Object property(Object object, Token name) {
 				if(object instanceof LoxInstance) {
-						return ((LoxInstance) object).get(expr.name);
+						return ((LoxInstance) object).get(name);
+				}
+				if(object instanceof JavaInterop.JavaObject) {
+						return ((JavaInterop.JavaObject) object).get(name);
 				}
 				throw new RuntimeException("Only instances have properties");
 		}
@@ -157,6 +256,50 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return value;
 		}
 
+		@Override
+		public Object visitArrayExpr(Expr.Array expr) {
+				if(budget != null) budget.allocate(Budget.ARRAY_BYTES + Budget.SLOT_BYTES * expr.elements.size());
+				LoxArray array = new LoxArray(expr.elements.size());
+				for(Expr element : expr.elements) array.add(element.accept(this));
+				return array;
+		}
+
+		@Override
+		public Object visitMapExpr(Expr.Map expr) {
+				if(budget != null) budget.allocate(Budget.MAP_BYTES + Budget.ENTRY_BYTES * expr.keys.size());
+				LoxMap map = new LoxMap();
+				for(int i = 0; i < expr.keys.size(); ++i) {
+						Object key = expr.keys.get(i).accept(this);
+						map.set(key, expr.values.get(i).accept(this));
+				}
+				return map;
+		}
+
+		@Override
+		public Object visitIndexExpr(Expr.Index expr) {
+				Object object = expr.object.accept(this);
+				Object index = expr.index.accept(this);
+
+				if(object instanceof LoxArray) return ((LoxArray) object).get(index);
+				if(object instanceof LoxMap) return ((LoxMap) object).get(index);
+				throw new RuntimeException("Only arrays and maps can be indexed, on line " + expr.bracket.line);
+		}
+
+		@Override
+		public Object visitIndexSetExpr(Expr.IndexSet expr) {
+				Object object = expr.object.accept(this);
+				Object index = expr.index.accept(this);
+
+				if(!(object instanceof LoxArray || object instanceof LoxMap)) {
+						throw new RuntimeException("Only arrays and maps can be indexed, on line " + expr.bracket.line);
+				}
+
+				Object value = expr.value.accept(this);
+				if(object instanceof LoxArray) ((LoxArray) object).set(index, value);
+				else if(((LoxMap) object).set(index, value) && budget != null) budget.allocate(Budget.ENTRY_BYTES);
+				return value;
+		}
+
 		@Override
 		public Object visitCallExpr(Expr.Call expr) {
 				Object callee = expr.callee.accept(this);
@@ -165,15 +308,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				for(Expr e : expr.arguments) {
 						arguments.add(e.accept(this));
 				}
-				
+				return call(callee, arguments, expr.paren);
+		}
+
+		public Object call(Object callee, List<Object> arguments, Token paren) {
 				if(!(callee instanceof LoxCallable)) throw new RuntimeException("Can only call functions and classes");
 
 				LoxCallable function = (LoxCallable) callee;
 
-				if (arguments.size() != function.arity()) {
+				// A negative arity accepts any number of arguments.
+				if (function.arity() >= 0 && arguments.size() != function.arity()) {
 					throw new RuntimeException("Expected " +
 							function.arity() + " arguments but got " +
-							arguments.size() + "." + " At line " + expr.paren.line);
+							arguments.size() + "." + " At line " + paren.line);
 				}
 
 				return function.call(this, arguments);
@@ -213,7 +360,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		@Override
 		public Void visitPrintStmt(Stmt.Print statement) {
 				Object expression_to_print = statement.expression.accept(this);
-				System.out.println(expression_to_print);
+				out.println(expression_to_print);
 				return null;
 		}
 
@@ -226,30 +373,50 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 		@Override
 		public Void visitBlockStmt(Stmt.Block statement) {
+				if(budget != null) budget.allocate(Budget.ENVIRONMENT_BYTES);
 				executeBlock(statement.statements, new Environment(environment));
 				return null;
 		}
 
+		// The value of expr evaluated in env.
+		public Object evaluate(Expr expr, Environment env) {
+				Environment previous = this.environment;
+
+				try {
+						this.environment = env;
+						return expr.accept(this);
+				}
+				finally {
+						this.environment = previous;
+				}
+		}
+
 		public void executeBlock(List<Stmt> statements, Environment env) {
 				Environment previous = this.environment;
 
 				try {
 						this.environment = env;
-						for(Stmt s : statements) s.accept(this);
+						for(Stmt s : statements) execute(s);
 				}
 				finally {
 						this.environment = previous;
 				}
 		}
 
+		// Runs a statement of a block or branch, counting it for --instrument.
+		private void execute(Stmt s) {
+				if(instrumentation != null) instrumentation.count(s);
+				s.accept(this);
+		}
+
 		@Override
 		public Void visitIfStmt(Stmt.If statement) {
 				boolean condition = isTruthy(statement.condition.accept(this));
 				if(condition) {
-						statement.thenBranch.accept(this);
+						execute(statement.thenBranch);
 				}
 				else if(statement.elseBranch != null) {
-						statement.elseBranch.accept(this);
+						execute(statement.elseBranch);
 				}
 				return null;
 		}
@@ -258,7 +425,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		public Void visitWhileStmt(Stmt.While statement) {
 				try {
 						while(isTruthy(statement.condition.accept(this))) {
-								statement.body.accept(this);
+								execute(statement.body);
+								if(budget != null) budget.step();
+								if(slot != null) slot.tick();
 						}
 				}
 				catch(BreakError e) {
@@ -279,6 +448,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				throw new BreakError();
 		}
 
+		@Override
+		public Void visitYieldStmt(Stmt.Yield statement) {
+				throw new RuntimeException("Can't use yield outside of a generator at line " + statement.keyword.line);
+		}
+
 		@Override
 		public Void visitClassStmt(Stmt.Class statement) {
 				environment.define(statement.name.lexeme, null);
@@ -314,7 +488,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				return globals.get(name);
 		}
 
-		private boolean isTruthy(Object a) {
+		public boolean isTruthy(Object a) {
 				if(a == null) return false;
 				if(a instanceof Boolean) return (boolean) a;
 				return true;
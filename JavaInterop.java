@@ -0,0 +1,438 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Java methods and objects as Lox values, see Lox.expose. Each public method
+// is turned into a MethodHandle once, when its class is first exposed: the
+// parameters get adapters converting Lox values to the declared types, the
+// result one converting back, and the handle is cast to the generic type
+// (Object, ...)Object, so a call is invokeExact with the argument list and
+// no reflection.
+//
+//   Lox number    double, or any other primitive number type if it is in range
+//   Lox string    String, or char for one-character strings
+//   true/false    boolean
+//   nil           any reference type
+//   anything else a parameter of a type it is an instance of
+//
+// Java numbers and chars come back as Lox numbers and strings, and objects
+// other than Lox values as JavaObjects whose public methods and fields are
+// their properties. Overloads of different arities are told apart by the
+// argument count; those of the same arity are tried in the order of how
+// directly Lox values convert to their parameters, and the first that
+// accepts the arguments' types is called. Varargs methods take up to
+// MAX_VARARGS trailing arguments one by one, or an array as the last one.
+public class JavaInterop {
+		private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+		private static final MethodHandles.Lookup SELF = MethodHandles.lookup();
+		private static final int MAX_VARARGS = 8;
+
+		private static final Map<Class<?>, MethodHandle> PARAMETERS = new HashMap<>();
+		private static final MethodHandle TO_REFERENCE;
+		private static final MethodHandle ACCEPTS;
+		private static final MethodHandle FROM_JAVA;
+		private static final MethodHandle FROM_CHAR;
+
+		static {
+				try {
+						for(Class<?> type : new Class<?>[] {double.class, float.class, long.class, int.class, short.class, byte.class, char.class, boolean.class, String.class}) {
+								String name = "to" + Character.toUpperCase(type.getSimpleName().charAt(0)) + type.getSimpleName().substring(1);
+								PARAMETERS.put(type, SELF.findStatic(JavaInterop.class, name, MethodType.methodType(type, Object.class)));
+						}
+						TO_REFERENCE = SELF.findStatic(JavaInterop.class, "toReference", MethodType.methodType(Object.class, Class.class, Object.class));
+						ACCEPTS = SELF.findStatic(JavaInterop.class, "accepts", MethodType.methodType(boolean.class, Class[].class, Object[].class));
+						FROM_JAVA = SELF.findStatic(JavaInterop.class, "fromJava", MethodType.methodType(Object.class, Object.class));
+						FROM_CHAR = SELF.findStatic(JavaInterop.class, "fromChar", MethodType.methodType(Object.class, char.class));
+				}
+				catch(ReflectiveOperationException e) {
+						throw new ExceptionInInitializerError(e);
+				}
+		}
+
+		// The public methods and fields of a class, static or not.
+		private static class Members {
+				final Map<String, JavaFunction> methods = new HashMap<>();
+				final Map<String, MethodHandle> fields = new HashMap<>();
+		}
+
+		private static final ClassValue<Members> STATICS = new ClassValue<Members>() {
+				@Override
+				protected Members computeValue(Class<?> type) {
+						return members(type, true);
+				}
+		};
+
+		private static final ClassValue<Members> INSTANCES = new ClassValue<Members>() {
+				@Override
+				protected Members computeValue(Class<?> type) {
+						return members(type, false);
+				}
+		};
+
+		// A Java function. Its handles take the arguments, and for instance
+		// methods the receiver first, as Objects; handles[n] is the overload
+		// taking n of them, if any. Binding a receiver shares the handles.
+		public static class JavaFunction implements LoxCallable {
+				private final String name;
+				private final MethodHandle[] handles;
+				private final Object receiver;
+				private final int arity;
+
+				// arity is the one once bound, for instance methods.
+				JavaFunction(String name, MethodHandle[] handles, Object receiver, int arity) {
+						this.name = name;
+						this.handles = handles;
+						this.receiver = receiver;
+						this.arity = arity;
+				}
+
+				// -1 if there are overloads of different arities.
+				@Override
+				public int arity() {
+						return arity;
+				}
+
+				JavaFunction bind(Object receiver) {
+						return new JavaFunction(name, handles, receiver, arity);
+				}
+
+				@Override
+				public Object call(Interpreter interpreter, List<Object> arguments) {
+						int n = arguments.size() + (receiver == null ? 0 : 1);
+						MethodHandle handle = n < handles.length ? handles[n] : null;
+						if(handle == null) throw new RuntimeException("No overload of " + name + " takes " + arguments.size() + " arguments");
+						try {
+								if(receiver == null) {
+										switch(n) {
+												case 0: return (Object) handle.invokeExact();
+												case 1: return (Object) handle.invokeExact(arguments.get(0));
+												case 2: return (Object) handle.invokeExact(arguments.get(0), arguments.get(1));
+												case 3: return (Object) handle.invokeExact(arguments.get(0), arguments.get(1), arguments.get(2));
+										}
+										return handle.invokeWithArguments(arguments);
+								}
+								switch(n) {
+										case 1: return (Object) handle.invokeExact(receiver);
+										case 2: return (Object) handle.invokeExact(receiver, arguments.get(0));
+										case 3: return (Object) handle.invokeExact(receiver, arguments.get(0), arguments.get(1));
+										case 4: return (Object) handle.invokeExact(receiver, arguments.get(0), arguments.get(1), arguments.get(2));
+								}
+								List<Object> all = new ArrayList<>(n);
+								all.add(receiver);
+								all.addAll(arguments);
+								return handle.invokeWithArguments(all);
+						}
+						catch(RuntimeException | Error e) {
+								throw e;
+						}
+						catch(Throwable e) {
+								throw new RuntimeException(name + ": " + e);
+						}
+				}
+
+				@Override
+				public String toString() {
+						return "<java fn " + name + ">";
+				}
+		}
+
+		// A Java object, or the static side of a class, as a Lox value. Methods
+		// are bound to the object on every access, like those of LoxInstances.
+		public static class JavaObject {
+				final Object target;
+				private final Class<?> type;
+				private final Members members;
+
+				JavaObject(Object target, Class<?> type, Members members) {
+						this.target = target;
+						this.type = type;
+						this.members = members;
+				}
+
+				public Object get(Token name) {
+						JavaFunction method = members.methods.get(name.lexeme);
+						if(method != null) return target == null ? method : method.bind(target);
+
+						MethodHandle field = members.fields.get(name.lexeme);
+						if(field == null) throw new RuntimeException("Undefined property " + name.lexeme + " at line " + name.line);
+						try {
+								return target == null ? (Object) field.invokeExact() : (Object) field.invokeExact(target);
+						}
+						catch(RuntimeException | Error e) {
+								throw e;
+						}
+						catch(Throwable e) {
+								throw new RuntimeException(name.lexeme + ": " + e);
+						}
+				}
+
+				@Override
+				public String toString() {
+						return target == null ? "<java class " + type.getName() + ">" : String.valueOf(target);
+				}
+		}
+
+		static JavaObject statics(Class<?> type) {
+				return new JavaObject(null, type, STATICS.get(type));
+		}
+
+		static JavaFunction function(String name, MethodHandle handle) {
+				MethodHandle[] handles = new MethodHandle[handle.type().parameterCount() + 1];
+				handles[handle.type().parameterCount()] = adapt(handle);
+				return new JavaFunction(name, handles, null, arity(handles, 0));
+		}
+
+		// The number of arguments taken by all of handles after the first from,
+		// or -1 if they take different numbers.
+		private static int arity(MethodHandle[] handles, int from) {
+				int arity = -1;
+				for(int i = from; i < handles.length; ++i) {
+						if(handles[i] == null) continue;
+						if(arity != -1) return -1;
+						arity = i - from;
+				}
+				return arity;
+		}
+
+		// value as a Lox value: Lox values as they are, other numbers as doubles,
+		// chars as strings and any other object as a JavaObject.
+		static Object fromJava(Object value) {
+				if(value == null || value instanceof Double || value instanceof String || value instanceof Boolean) return value;
+				if(value instanceof Number) return ((Number) value).doubleValue();
+				if(value instanceof Character) return value.toString();
+				if(value instanceof LoxCallable || value instanceof LoxInstance || value instanceof JavaObject || value instanceof LoxArray
+						|| value instanceof LoxMap || value instanceof LoxVector || value instanceof LoxChannel) return value;
+				return new JavaObject(value, value.getClass(), INSTANCES.get(value.getClass()));
+		}
+
+		// value as a Java object: JavaObjects as the objects they wrap, anything
+		// else as it is.
+		static Object toJava(Object value) {
+				if(value instanceof JavaObject && ((JavaObject) value).target != null) return ((JavaObject) value).target;
+				return value;
+		}
+
+		private static Members members(Class<?> type, boolean statics) {
+				// Bridge methods only where nothing else has their signature, as for
+				// public methods inherited from a class that isn't public.
+				Map<String, Method> methods = new HashMap<>();
+				for(Method method : type.getMethods()) {
+						if(Modifier.isStatic(method.getModifiers()) != statics) continue;
+						String signature = method.getName() + Arrays.toString(method.getParameterTypes());
+						Method other = methods.get(signature);
+						if(other == null || (other.isBridge() && !method.isBridge())) methods.put(signature, method);
+				}
+
+				Map<String, List<MethodHandle>> overloads = new HashMap<>();
+				List<Method> varargs = new ArrayList<>();
+				for(Method method : methods.values()) {
+						MethodHandle handle = lookup(type, method);
+						if(handle == null) continue;
+						overloads.computeIfAbsent(method.getName(), name -> new ArrayList<>()).add(handle.asFixedArity());
+						if(method.isVarArgs()) varargs.add(method);
+				}
+				// Varargs methods also taking their trailing arguments one by one,
+				// after the overloads declared with those parameters.
+				for(Method method : varargs) {
+						MethodHandle handle = lookup(type, method).asFixedArity();
+						Class<?> array = handle.type().parameterType(handle.type().parameterCount() - 1);
+						for(int n = 0; n <= MAX_VARARGS; ++n) overloads.get(method.getName()).add(handle.asCollector(array, n));
+				}
+
+				Members members = new Members();
+				int receiver = statics ? 0 : 1;
+				for(Map.Entry<String, List<MethodHandle>> entry : overloads.entrySet()) {
+						List<MethodHandle> candidates = entry.getValue();
+						candidates.sort(Comparator.comparingInt(handle -> cost(handle.type(), receiver)));
+						MethodHandle[] handles = new MethodHandle[1];
+						for(MethodHandle handle : candidates) {
+								int arity = handle.type().parameterCount();
+								if(arity >= handles.length) handles = Arrays.copyOf(handles, arity + 1);
+								if(handles[arity] == null) handles[arity] = dispatch(candidates, arity);
+						}
+						members.methods.put(entry.getKey(), new JavaFunction(entry.getKey(), handles, null, arity(handles, receiver)));
+				}
+
+				for(Field field : type.getFields()) {
+						if(Modifier.isStatic(field.getModifiers()) != statics || members.methods.containsKey(field.getName())) continue;
+						try {
+								members.fields.put(field.getName(), adapt(LOOKUP.unreflectGetter(field)));
+						}
+						catch(IllegalAccessException e) {
+								// Declared by a class that isn't public.
+						}
+				}
+				return members;
+		}
+
+		// method as found through type or its public supertypes, since it may be
+		// declared by a class that isn't public, or null if it isn't accessible.
+		private static MethodHandle lookup(Class<?> type, Method method) {
+				MethodType methodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+				boolean isStatic = Modifier.isStatic(method.getModifiers());
+				List<Class<?>> owners = new ArrayList<>();
+				for(Class<?> c = type; c != null; c = c.getSuperclass()) owners.add(c);
+				for(int i = 0; i < owners.size(); ++i) {
+						for(Class<?> parent : owners.get(i).getInterfaces()) if(!owners.contains(parent)) owners.add(parent);
+				}
+				for(Class<?> owner : owners) {
+						if(!Modifier.isPublic(owner.getModifiers())) continue;
+						try {
+								if(isStatic) return LOOKUP.findStatic(owner, method.getName(), methodType);
+								return LOOKUP.findVirtual(owner, method.getName(), methodType);
+						}
+						catch(NoSuchMethodException | IllegalAccessException e) {
+								// Try the next supertype.
+						}
+				}
+				return null;
+		}
+
+		// The overloads of the given arity, cheapest first, as one handle that
+		// calls the first whose parameters accept the arguments, or else the
+		// cheapest, which then reports the mismatch.
+		private static MethodHandle dispatch(List<MethodHandle> candidates, int arity) {
+				List<MethodHandle> overloads = new ArrayList<>();
+				for(MethodHandle handle : candidates) if(handle.type().parameterCount() == arity) overloads.add(handle);
+				if(overloads.size() == 1) return adapt(overloads.get(0));
+
+				MethodHandle chain = adapt(overloads.get(0));
+				for(int i = overloads.size() - 1; i >= 0; --i) {
+						MethodType type = overloads.get(i).type();
+						MethodHandle test = MethodHandles.insertArguments(ACCEPTS, 0, (Object) type.parameterArray())
+								.asCollector(Object[].class, arity);
+						chain = MethodHandles.guardWithTest(test, adapt(overloads.get(i)), chain);
+				}
+				return chain;
+		}
+
+		private static boolean accepts(Class<?>[] types, Object[] values) {
+				for(int i = 0; i < types.length; ++i) {
+						Class<?> type = MethodType.methodType(types[i]).wrap().returnType();
+						Object value = values[i] instanceof JavaObject ? ((JavaObject) values[i]).target : values[i];
+						if(Number.class.isAssignableFrom(type) && type != Number.class) {
+								if(!(value instanceof Double)) return false;
+						}
+						else if(type == Character.class) {
+								if(!(value instanceof String) || ((String) value).length() != 1) return false;
+						}
+						else if(value == null ? types[i].isPrimitive() : !type.isInstance(value)) return false;
+				}
+				return true;
+		}
+
+		// How indirectly Lox values convert to the parameters, for overloads.
+		private static int cost(MethodType type, int from) {
+				int cost = 0;
+				for(int i = from; i < type.parameterCount(); ++i) {
+						Class<?> parameter = type.parameterType(i);
+						if(parameter == double.class || parameter == String.class || parameter == boolean.class) continue;
+						cost += parameter == Object.class ? 1 : parameter.isPrimitive() ? 2 : 3;
+				}
+				return cost;
+		}
+
+		// handle with converting parameters and result, as (Object, ...)Object.
+		private static MethodHandle adapt(MethodHandle handle) {
+				MethodType type = handle.type();
+				MethodHandle[] filters = new MethodHandle[type.parameterCount()];
+				for(int i = 0; i < filters.length; ++i) filters[i] = parameter(type.parameterType(i));
+				handle = MethodHandles.filterArguments(handle, 0, filters);
+
+				Class<?> result = type.returnType();
+				if(result == char.class) handle = MethodHandles.filterReturnValue(handle, FROM_CHAR);
+				else if(result.isPrimitive() && result != void.class && result != boolean.class) {
+						handle = MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(double.class));
+				}
+				else if(!result.isPrimitive() && result != String.class && result != Double.class && result != Boolean.class) {
+						handle = MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)), FROM_JAVA);
+				}
+				return handle.asType(MethodType.genericMethodType(type.parameterCount()));
+		}
+
+		// (Object)type converting a Lox value.
+		private static MethodHandle parameter(Class<?> type) {
+				MethodHandle converter = PARAMETERS.get(type);
+				if(converter != null) return converter;
+				// Integer and the like box the result of the primitive conversion.
+				converter = PARAMETERS.get(MethodType.methodType(type).unwrap().returnType());
+				if(converter != null) return converter.asType(MethodType.methodType(type, Object.class));
+				return MethodHandles.insertArguments(TO_REFERENCE, 0, type).asType(MethodType.methodType(type, Object.class));
+		}
+
+		private static double toDouble(Object value) {
+				if(value instanceof Double) return (double) value;
+				throw new RuntimeException("Expected a number but got " + typeName(value));
+		}
+
+		private static float toFloat(Object value) {
+				return (float) toDouble(value);
+		}
+
+		private static long toLong(Object value) {
+				double d = toDouble(value);
+				if(d != Math.floor(d) || d < Long.MIN_VALUE || d > Long.MAX_VALUE) throw new RuntimeException("Expected a whole number but got " + d);
+				return (long) d;
+		}
+
+		private static int toInt(Object value) {
+				long n = toLong(value);
+				if(n < Integer.MIN_VALUE || n > Integer.MAX_VALUE) throw new RuntimeException(n + " is out of range for an int");
+				return (int) n;
+		}
+
+		private static short toShort(Object value) {
+				long n = toLong(value);
+				if(n < Short.MIN_VALUE || n > Short.MAX_VALUE) throw new RuntimeException(n + " is out of range for a short");
+				return (short) n;
+		}
+
+		private static byte toByte(Object value) {
+				long n = toLong(value);
+				if(n < Byte.MIN_VALUE || n > Byte.MAX_VALUE) throw new RuntimeException(n + " is out of range for a byte");
+				return (byte) n;
+		}
+
+		private static char toChar(Object value) {
+				if(value instanceof String && ((String) value).length() == 1) return ((String) value).charAt(0);
+				throw new RuntimeException("Expected a one-character string but got " + typeName(value));
+		}
+
+		private static boolean toBoolean(Object value) {
+				if(value instanceof Boolean) return (boolean) value;
+				throw new RuntimeException("Expected true or false but got " + typeName(value));
+		}
+
+		private static String toString(Object value) {
+				if(value == null || value instanceof String) return (String) value;
+				throw new RuntimeException("Expected a string but got " + typeName(value));
+		}
+
+		private static Object toReference(Class<?> type, Object value) {
+				if(value instanceof JavaObject) value = ((JavaObject) value).target;
+				if(value == null || type.isInstance(value)) return value;
+				throw new RuntimeException("Expected " + type.getSimpleName() + " but got " + typeName(value));
+		}
+
+		private static Object fromChar(char value) {
+				return String.valueOf(value);
+		}
+
+		private static String typeName(Object value) {
+				if(value == null) return "nil";
+				if(value instanceof Double) return "a number";
+				if(value instanceof String) return "a string";
+				if(value instanceof Boolean) return "a boolean";
+				if(value instanceof JavaObject) return ((JavaObject) value).target.getClass().getSimpleName();
+				return value.getClass().getSimpleName();
+		}
+}
@@ -0,0 +1,57 @@
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+
+// Body of a function that was only skipped over by the parser. The tokens are
+// parsed, and resolved with the scopes captured by the Resolver, the first
+// time the statements are needed, which is normally the first call. That may
+// be on a task or parallel worker while other threads run and read the same
+// locals, which is why every map the Resolver writes into is concurrent.
+public class LazyBody extends AbstractList<Stmt> {
+		private List<Token> tokens;
+		private Lox lox;
+		private Resolver resolver;
+		private List<Stmt> statements;
+
+		LazyBody(List<Token> tokens, Lox lox) {
+				this.tokens = tokens;
+				this.lox = lox;
+		}
+
+		public synchronized boolean isParsed() {
+				return statements != null;
+		}
+
+		public synchronized void defer(Resolver resolver) {
+				this.resolver = resolver;
+		}
+
+		private synchronized List<Stmt> force() {
+				if(statements != null) return statements;
+
+				List<Stmt> parsed = new Parser(tokens, true, lox).parse();
+				if(parsed == null) throw new RuntimeException("Invalid function body at line " + tokens.get(0).line);
+				if(resolver != null) resolver.resolve(parsed);
+
+				statements = parsed;
+				tokens = null;
+				lox = null;
+				resolver = null;
+				return statements;
+		}
+
+		@Override
+		public Stmt get(int index) {
+				return force().get(index);
+		}
+
+		@Override
+		public int size() {
+				return force().size();
+		}
+
+		@Override
+		public Iterator<Stmt> iterator() {
+				return force().iterator();
+		}
+}
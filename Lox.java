@@ -1,41 +1,385 @@
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
+// One jlox invocation, or isolate: its own streams, error state and
+// Interpreter, so that several of them can run in the same JVM (see
+// LoxDaemon and LoxExecutor).
 public class Lox {
-		private static boolean errorOccured = false;
-		private static boolean runtimeErrorOccured = false;
-		private static Interpreter interpreter = new Interpreter();
+		public final InputStream in;
+		public final PrintStream out;
+		public final PrintStream err;
+		private final Path workingDirectory;
+		private final Interpreter interpreter;
+		// Set by spawned tasks too, on their own threads.
+		private volatile boolean errorOccured = false;
+		private volatile boolean runtimeErrorOccured = false;
+		private volatile String firstError = null;
+		private volatile boolean ioErrorOccured = false;
+		private volatile int liveTasks = 0;
+		private boolean lazyFunctions = false;
+		private Instrumentation instrumentation = null;
+
+		Lox(InputStream in, PrintStream out, PrintStream err, Path workingDirectory) {
+				this.in = in;
+				this.out = out;
+				this.err = err;
+				this.workingDirectory = workingDirectory;
+				this.interpreter = new Interpreter(this);
+		}
 
 		public static void main(String[] args) throws IOException {
-				if(args.length > 1) {
-						System.out.println("Usage: jlox [script]");
-						System.exit(64); 
+				if(args.length == 2 && args[0].equals("--daemon")) {
+						new LoxDaemon(Paths.get(args[1])).serve();
+						return;
+				}
+
+				Lox lox = new Lox(System.in, System.out, System.err, Paths.get(""));
+				int status = lox.runCommand(args);
+				if(status != 0) System.exit(status);
+		}
+
+		// Runs the command line of one invocation and returns its exit status.
+		public int runCommand(String[] args) throws IOException {
+				boolean pipeline = false;
+				boolean parallel = false;
+				boolean batch = false;
+				boolean bench = false;
+				int warmup = 5;
+				int iterations = 20;
+				Path json = null;
+				Path baseline = null;
+				Path profile = null;
+				int profileHertz = 100;
+				boolean instrument = false;
+				Path csv = null;
+				boolean pgo = false;
+				long maxSteps = Budget.UNLIMITED;
+				long maxBytes = Budget.UNLIMITED;
+				long maxMillis = Budget.UNLIMITED;
+				long maxDepth = Budget.UNLIMITED;
+				Path cache = null;
+				Path prelude = null;
+				Path output = workingDirectory.resolve("jlox-batch");
+				String path = null;
+				for(String arg : args) {
+						if(arg.equals("--pipeline")) pipeline = true;
+						else if(arg.equals("--parallel")) parallel = true;
+						else if(arg.equals("--lazy")) lazyFunctions = true;
+						else if(arg.equals("--cache")) cache = ScriptCache.defaultDirectory();
+						else if(arg.startsWith("--cache=")) cache = workingDirectory.resolve(arg.substring("--cache=".length()));
+						else if(arg.equals("--batch")) batch = true;
+						else if(arg.startsWith("--prelude=")) prelude = workingDirectory.resolve(arg.substring("--prelude=".length()));
+						else if(arg.startsWith("--out=")) output = workingDirectory.resolve(arg.substring("--out=".length()));
+						else if(arg.equals("--bench")) bench = true;
+						else if(arg.startsWith("--warmup=")) warmup = count(arg.substring("--warmup=".length()), 0);
+						else if(arg.startsWith("--iterations=")) iterations = count(arg.substring("--iterations=".length()), 1);
+						else if(arg.startsWith("--json=")) json = workingDirectory.resolve(arg.substring("--json=".length()));
+						else if(arg.startsWith("--baseline=")) baseline = workingDirectory.resolve(arg.substring("--baseline=".length()));
+						else if(arg.equals("--profile")) profile = workingDirectory.resolve("jlox.collapsed");
+						else if(arg.startsWith("--profile=")) profile = workingDirectory.resolve(arg.substring("--profile=".length()));
+						else if(arg.startsWith("--profile-hz=")) profileHertz = count(arg.substring("--profile-hz=".length()), 1);
+						else if(arg.equals("--instrument")) instrument = true;
+						else if(arg.startsWith("--instrument=")) csv = workingDirectory.resolve(arg.substring("--instrument=".length()));
+						else if(arg.equals("--pgo")) pgo = true;
+						else if(arg.startsWith("--max-steps=")) maxSteps = amount(arg.substring("--max-steps=".length()));
+						else if(arg.startsWith("--max-memory=")) maxBytes = amount(arg.substring("--max-memory=".length()));
+						else if(arg.startsWith("--max-time=")) maxMillis = amount(arg.substring("--max-time=".length()));
+						else if(arg.startsWith("--max-depth=")) maxDepth = amount(arg.substring("--max-depth=".length()));
+						else if(path == null) path = arg;
+						else return usage();
+				}
+				if(pipeline && (parallel || cache != null)) return usage();
+				if(prelude != null && !batch) return usage();
+				if(warmup < 0 || iterations < 0) return usage();
+				if((json != null || baseline != null) && !bench) return usage();
+				if(profileHertz < 1 || (profile != null && (batch || bench))) return usage();
+				if((instrument || csv != null) && (batch || bench)) return usage();
+				if(pgo && (path == null || pipeline || parallel || cache != null || lazyFunctions || instrument || csv != null || batch || bench)) return usage();
+				if(maxSteps < 0 || maxBytes < 0 || maxMillis < 0 || maxDepth < 0) return usage();
+				Budget budget = new Budget(maxSteps, maxBytes, maxMillis, maxDepth);
+				if(!budget.isUnlimited() && bench) return usage();
+
+				if(batch) {
+						if(path == null) return usage();
+						return new LoxBatch(workingDirectory.resolve(path), prelude, output, budget.isUnlimited() ? null : budget, out, err).run();
+				}
+				else if(bench) {
+						if(path == null) return usage();
+						return new LoxBench(workingDirectory.resolve(path), warmup, iterations, json, baseline, out, err).run();
+				}
+
+				if(instrument || csv != null) {
+						instrumentation = new Instrumentation();
+						interpreter.instrumentation = instrumentation;
+				}
+				if(!budget.isUnlimited()) limit(budget);
+				Profiler profiler = null;
+				if(profile != null) {
+						profiler = new Profiler(path == null ? "<stdin>" : Paths.get(path).getFileName().toString(), profileHertz);
+						interpreter.profiler = profiler;
+						profiler.start();
+				}
+				LoxEvents.ScriptExecution execution = LoxMetrics.ENABLED ? LoxMetrics.beginScript(path == null ? "<stdin>" : path) : null;
+				try {
+						if(pgo) {
+								runFileProfiled(path);
+						}
+						else if(path != null && cache != null) {
+								runFileCached(path, new ScriptCache(cache, err), parallel);
+						}
+						else if(path != null && parallel) {
+								runFileParallel(path);
+						}
+						else if(path != null) {
+								runFile(path, pipeline);
+						}
+						else if(pipeline) {
+								runPipelined(new Tokenizer(new InputStreamReader(input(), Charset.defaultCharset()), this));
+						}
+						else {
+								runPrompt();
+						}
+				}
+				catch(IOException e) {
+						String message = "Can't read " + (path == null ? "standard input" : path) + ": " + e.getMessage();
+						err.println(message);
+						if(firstError == null) firstError = message;
+						ioErrorOccured = true;
+				}
+				finally {
+						if(profiler != null) {
+								profiler.stop();
+								interpreter.profiler = null;
+								profiler.write(profile);
+						}
+						if(execution != null) execution.commit();
+						if(csv != null) instrumentation.writeCsv(csv);
+						else if(instrumentation != null) instrumentation.report(err, 20);
+				}
+				// Tasks the script spawned still print and report errors.
+				try {
+						awaitTasks();
+				}
+				catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+				}
+				return status();
+		}
+
+		// Parses and resolves a script without running it. Returns null, after
+		// reporting to this isolate, if the source has errors.
+		public Program compile(String source) {
+				return compile(source, null);
+		}
+
+		// The returned Program runs the prelude's statements, which are shared and
+		// not resolved again, followed by the script's.
+		public Program compile(String source, Program prelude) {
+				List<Stmt> ss = parse(() -> new Parser(new Tokenizer(source, this), this).parse());
+				if(errorOccured) return null;
+
+				Map<Expr, Integer> locals = prelude == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(prelude.locals);
+				resolve(ss, new Resolver(locals, out));
+
+				if(prelude != null) {
+						List<Stmt> statements = new ArrayList<Stmt>(prelude.statements);
+						statements.addAll(ss);
+						ss = statements;
+				}
+				return new Program(ss, locals);
+		}
+
+		public int run(String source, Program prelude) {
+				Program program = compile(source, prelude);
+				return program == null ? status() : run(program);
+		}
+
+		public int run(Program program) {
+				LoxEvents.ScriptExecution execution = LoxMetrics.ENABLED ? LoxMetrics.beginScript("<program>") : null;
+				interpreter.locals = program.locals;
+				interpreter.interpret(program.statements);
+				if(execution != null) execution.commit();
+				return status();
+		}
+
+		// Runs a program like run(Program) and returns the value of its last
+		// statement if that is an expression statement, or nil. Check status()
+		// for errors.
+		public Object evaluate(Program program) {
+				interpreter.locals = program.locals;
+				return interpreter.interpretValue(program.statements);
+		}
+
+		// Makes the public static methods and fields of type the properties of a
+		// global, for example expose("Math", Math.class) for Math.sqrt(x).
+		public void expose(String name, Class<?> type) {
+				interpreter.globals.define(name, JavaInterop.statics(type));
+		}
+
+		// Makes target a global whose properties are its public methods and fields.
+		public void expose(String name, Object target) {
+				interpreter.globals.define(name, JavaInterop.fromJava(target));
+		}
+
+		// Makes handle a global function.
+		public void expose(String name, MethodHandle handle) {
+				interpreter.globals.define(name, JavaInterop.function(name, handle));
+		}
+
+		public Environment globals() {
+				return interpreter.globals;
+		}
+
+		// The message of the first error reported to this isolate, or null.
+		public String firstError() {
+				return firstError;
+		}
+
+		private int usage() {
+				out.println("Usage: jlox [--pipeline | --parallel] [--lazy] [--cache[=dir]] [--profile[=file]] [--profile-hz=n]");
+				out.println("            [--instrument[=csv]] [--max-steps=n] [--max-memory=bytes] [--max-time=ms] [--max-depth=n] [script]");
+				out.println("       jlox --pgo [--profile[=file]] [--profile-hz=n] [--max-steps=n] [--max-memory=bytes] [--max-time=ms]");
+				out.println("            [--max-depth=n] script");
+				out.println("       jlox --batch [--prelude=file] [--out=dir] [--max-steps=n] [--max-memory=bytes] [--max-time=ms] [--max-depth=n]");
+				out.println("            directory|manifest");
+				out.println("       jlox --bench [--warmup=n] [--iterations=n] [--json=file] [--baseline=file] script");
+				out.println("       jlox --daemon socket");
+				return 64;
+		}
+
+		// Puts this isolate's scripts under budget, from now on.
+		public void limit(Budget budget) {
+				interpreter.budget = budget;
+		}
+
+		// Time-slices this isolate's scripts under slot, or stops doing so if null.
+		public void schedule(Scheduler.Slot slot) {
+				interpreter.slot = slot;
+		}
+
+		// A non-negative whole number with an optional k, m or g suffix for
+		// multiples of 1024, or -1.
+		private static long amount(String value) {
+				long unit = 1;
+				String suffix = value.isEmpty() ? "" : value.substring(value.length() - 1).toLowerCase();
+				if(suffix.equals("k")) unit = 1L << 10;
+				else if(suffix.equals("m")) unit = 1L << 20;
+				else if(suffix.equals("g")) unit = 1L << 30;
+				if(unit > 1) value = value.substring(0, value.length() - 1);
+				try {
+						long n = Long.parseLong(value);
+						return n >= 0 && n <= Budget.UNLIMITED / unit ? n * unit : -1;
 				}
-				if(args.length == 1) {
-						runFile(args[0]);
+				catch(NumberFormatException e) {
+						return -1;
+				}
+		}
+
+		// A whole number of at least min, or -1.
+		private static int count(String value, int min) {
+				try {
+						int n = Integer.parseInt(value);
+						return n >= min ? n : -1;
 				}
-				else {
-						runPrompt();
+				catch(NumberFormatException e) {
+						return -1;
 				}
 		}
 
-		private static void runFile(String path) throws IOException {
-				byte[] bytes = Files.readAllBytes(Paths.get(path));
-				run(new String(bytes, Charset.defaultCharset()));
-				if(errorOccured) System.exit(65);
-				if(runtimeErrorOccured) System.exit(76);
+		public int status() {
+				if(ioErrorOccured) return 74;
+				if(errorOccured) return 65;
+				if(runtimeErrorOccured) return 76;
+				return 0;
 		}
 
-		private static void runPrompt() throws IOException {
-				InputStreamReader input = new InputStreamReader(System.in);
+		private void runFile(String path, boolean pipeline) throws IOException {
+				try(Reader reader = new InputStreamReader(Files.newInputStream(workingDirectory.resolve(path)), Charset.defaultCharset())) {
+						if(pipeline) runPipelined(new Tokenizer(reader, this));
+						else run(new Tokenizer(reader, this));
+				}
+				catch(UncheckedIOException e) {
+						// From the Tokenizer, as it reads.
+						throw e.getCause();
+				}
+		}
+
+		private void runFileParallel(String path) throws IOException {
+				byte[] bytes = Files.readAllBytes(workingDirectory.resolve(path));
+				execute(parse(() -> new ParallelParser(new String(bytes, Charset.defaultCharset()), lazyFunctions, this).parse()));
+		}
+
+		// Reuses the resolved tree stored for this exact source text if there is a
+		// valid one, otherwise parses and resolves as usual and stores the result.
+		private void runFileCached(String path, ScriptCache cache, boolean parallel) throws IOException {
+				byte[] bytes = Files.readAllBytes(workingDirectory.resolve(path));
+				byte[] hash = ScriptCache.hash(bytes);
+
+				List<Stmt> ss = cache.load(hash, interpreter);
+				if(ss == null) {
+						String source = new String(bytes, Charset.defaultCharset());
+						ss = parse(() -> parallel ? new ParallelParser(source, false, this).parse() : new Parser(new Tokenizer(source, this), this).parse());
+						if(errorOccured) return;
+
+						resolve(ss);
+						cache.store(hash, ss, interpreter.locals);
+				}
+
+				if(instrumentation != null) instrumentation.register(ss);
+				interpreter.interpret(ss);
+		}
+
+		// Specializes the script by the type profile saved next to it by an
+		// earlier run of the same source, or records one for the next run.
+		private void runFileProfiled(String path) throws IOException {
+				Path script = workingDirectory.resolve(path);
+				Path saved = script.resolveSibling(script.getFileName() + ".pgo");
+				byte[] bytes = Files.readAllBytes(script);
+				byte[] hash = ScriptCache.hash(bytes);
+
+				String source = new String(bytes, Charset.defaultCharset());
+				List<Stmt> ss = parse(() -> new Parser(new Tokenizer(source, this), this).parse());
+				if(errorOccured) return;
+				resolve(ss);
+
+				TypeProfile profile = TypeProfile.load(saved, hash);
+				if(profile == null) profile = TypeProfile.recorder(hash);
+				ss = profile.apply(ss);
+				interpreter.interpret(ss);
+
+				if(profile.isRecording()) {
+						try {
+								profile.save(saved);
+						}
+						catch(IOException e) {
+								err.println("Could not write the type profile " + saved + ": " + e.getMessage());
+						}
+				}
+		}
+
+		private void runPrompt() throws IOException {
+				InputStreamReader input = new InputStreamReader(input());
 				BufferedReader reader = new BufferedReader(input);
 				while(true) {
-						System.out.print(">>> ");
+						out.print(">>> ");
 						String line;
 						if((line = reader.readLine()) != null) run(line);
 						else break;
@@ -44,32 +388,157 @@ public class Lox {
 				}
 		}
 
-		private static void run(String source) {
-				Tokenizer tokenizer = new Tokenizer(source);
-				List<Token> tokens = tokenizer.scanTokens();
+		// Standard input, which gives the script's worker up while a read blocks,
+		// so that a client typing slowly doesn't keep other scripts waiting.
+		private InputStream input() {
+				return new FilterInputStream(in) {
+						@Override
+						public int read() throws IOException {
+								byte[] b = new byte[1];
+								return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+						}
+
+						@Override
+						public int read(byte[] b, int off, int len) throws IOException {
+								Scheduler.Slot slot = interpreter.slot;
+								if(slot == null || in.available() > 0) return in.read(b, off, len);
+								slot.pause();
+								try {
+										return in.read(b, off, len);
+								}
+								finally {
+										slot.resume();
+								}
+						}
+				};
+		}
+
+		private void run(String source) {
+				run(new Tokenizer(source, this));
+		}
 
-				Parser parser = new Parser(tokens);
-				List<Stmt> ss = parser.parse();
+		private void run(Tokenizer tokenizer) {
+				Parser parser = new Parser(tokenizer, lazyFunctions, this);
+				execute(parse(parser::parse));
+		}
 
+		private void execute(List<Stmt> ss) {
 				if(errorOccured) return;
 
+				resolve(ss);
+				if(instrumentation != null) instrumentation.register(ss);
+				interpreter.interpret(ss);
+		}
+
+		private void resolve(List<Stmt> ss) {
+				resolve(ss, new Resolver(interpreter));
+		}
+
+		private void resolve(List<Stmt> ss, Resolver resolver) {
+				LoxEvents.Phase event = LoxMetrics.ENABLED ? LoxMetrics.beginPhase("resolve") : null;
+				resolver.resolve(ss);
+				if(event != null) event.commit();
+		}
+
+		private List<Stmt> parse(Supplier<List<Stmt>> parser) {
+				LoxEvents.Phase event = LoxMetrics.ENABLED ? LoxMetrics.beginPhase("parse") : null;
+				List<Stmt> ss = parser.get();
+				if(event != null) event.commit();
+				return ss;
+		}
+
+		// Each top-level declaration is resolved and executed as soon as it has been
+		// parsed, before the tokenizer reads any further into the source.
+		// A failed read is thrown as an IOException, not taken for the end of
+		// the input; the statements before it have run by then.
+		private void runPipelined(Tokenizer tokenizer) throws IOException {
+				Parser parser = new Parser(tokenizer, lazyFunctions, this);
 				Resolver resolver = new Resolver(interpreter);
-				for(Stmt s : ss) s.accept(resolver);
 
-				interpreter.interpret(ss);
+				while(!runtimeErrorOccured) {
+						Stmt s;
+						try {
+								s = parser.parseNext();
+						}
+						catch(UncheckedIOException e) {
+								throw e.getCause();
+						}
+						if(errorOccured) return;
+						if(s == null) break;
+
+						s.accept(resolver);
+						List<Stmt> ss = Arrays.asList(s);
+						if(instrumentation != null) instrumentation.register(ss);
+						interpreter.interpret(ss, false);
+				}
+				if(!runtimeErrorOccured) interpreter.interpret(Collections.emptyList());
+		}
+
+		public Path resolve(String path) {
+				return workingDirectory.resolve(path);
+		}
+
+		synchronized void taskStarted() {
+				liveTasks++;
+		}
+
+		void taskFinished() {
+				synchronized(this) {
+						if(--liveTasks == 0) notifyAll();
+				}
+				interpreter.events.wake();
+		}
+
+		// Read by the event loop without taking this lock.
+		boolean hasLiveTasks() {
+				return liveTasks > 0;
+		}
+
+		// Waits until the tasks spawned by this isolate's scripts have finished.
+		// A task blocked for good, say on a channel nobody sends to, keeps this
+		// waiting just as long, unless the script has a time budget: then
+		// waiting past its end is a runtime error.
+		public void awaitTasks() throws InterruptedException {
+				Scheduler.Slot slot = interpreter.slot;
+				Budget budget = interpreter.budget;
+				long deadline = budget == null ? Budget.UNLIMITED : budget.deadline();
+				if(slot != null) slot.pause();
+				try {
+						synchronized(this) {
+								while(liveTasks > 0) {
+										if(deadline == Budget.UNLIMITED) {
+												wait();
+												continue;
+										}
+										long left = deadline - System.nanoTime();
+										if(left <= 0) {
+												// The event loop has usually reported it already.
+												if(!runtimeErrorOccured) runtimeError(new RuntimeException("Time budget of " + budget.maxMillis + " ms exceeded waiting for " + liveTasks + " task(s)"));
+												return;
+										}
+										wait(left / 1000000, (int) Math.max(1, left % 1000000));
+								}
+						}
+				}
+				finally {
+						if(slot != null) slot.resume();
+				}
 		}
 
-		public static void runtimeError(RuntimeException e) {
-				System.err.println(e.getMessage());
+		public synchronized void runtimeError(RuntimeException e) {
+				if(LoxMetrics.ENABLED) LoxMetrics.runtimeError(e.getMessage());
+				err.println(e.getMessage());
+				if(firstError == null) firstError = e.getMessage();
 				runtimeErrorOccured = true;
 		}
 
-		public static void error(int line, String message) {
+		public void error(int line, String message) {
 				report(line, "", message);
 		}
 
-		private static void report(int line, String where, String message) {
-				System.err.println("[line " + line + "] Error" + where + ": " + message);
+		private synchronized void report(int line, String where, String message) {
+				err.println("[line " + line + "] Error" + where + ": " + message);
+				if(firstError == null) firstError = "[line " + line + "] Error" + where + ": " + message;
 				errorOccured = true;
 		}
 
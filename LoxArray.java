@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+// Growable array value. While every element is a number the elements are kept
+// unboxed in a double[]; storing anything else switches the array to an
+// Object[] for good, or until it is emptied.
+public class LoxArray {
+		private double[] numbers;
+		private Object[] values;
+		private int size;
+
+		LoxArray(int capacity) {
+				this.numbers = new double[Math.max(capacity, 4)];
+		}
+
+		static void defineNatives(Environment globals) {
+				globals.define("array", new NativeFunction("array", 2, (interpreter, arguments) -> {
+						int size = index(arguments.get(0));
+						if(interpreter.budget != null) interpreter.budget.allocate(Budget.ARRAY_BYTES + Budget.SLOT_BYTES * size);
+						LoxArray array = new LoxArray(size);
+						for(int i = 0; i < size; ++i) array.add(arguments.get(1));
+						return array;
+				}));
+				globals.define("len", new NativeFunction("len", 1, (interpreter, arguments) -> {
+						Object value = arguments.get(0);
+						if(value instanceof LoxArray) return (double) ((LoxArray) value).size;
+						if(value instanceof LoxMap) return (double) ((LoxMap) value).size();
+						if(value instanceof LoxVector) return (double) ((LoxVector) value).values.length;
+						if(value instanceof String) return (double) ((String) value).length();
+						throw new RuntimeException("Expected an array, a map or a string");
+				}));
+				globals.define("push", new NativeFunction("push", 2, (interpreter, arguments) -> {
+						if(interpreter.budget != null) interpreter.budget.allocate(Budget.SLOT_BYTES);
+						array(arguments.get(0)).add(arguments.get(1));
+						return arguments.get(1);
+				}));
+				globals.define("pop", new NativeFunction("pop", 1, (interpreter, arguments) -> {
+						return array(arguments.get(0)).pop();
+				}));
+		}
+
+		public int size() {
+				return size;
+		}
+
+		// The unboxed elements, or null if the array holds anything but numbers.
+		// Only the first size() entries are in use.
+		public double[] numbers() {
+				return numbers;
+		}
+
+		public Object at(int i) {
+				return numbers != null ? (Object) numbers[i] : values[i];
+		}
+
+		public Object get(Object index) {
+				return at(checkIndex(index));
+		}
+
+		public void set(Object index, Object value) {
+				int i = checkIndex(index);
+				if(numbers != null) {
+						if(value instanceof Double) {
+								numbers[i] = (double) value;
+								return;
+						}
+						box();
+				}
+				values[i] = value;
+		}
+
+		public void add(Object value) {
+				if(numbers != null && !(value instanceof Double)) box();
+
+				if(numbers != null) {
+						if(size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+						numbers[size++] = (double) value;
+				}
+				else {
+						if(size == values.length) values = Arrays.copyOf(values, size * 2);
+						values[size++] = value;
+				}
+		}
+
+		public Object pop() {
+				if(size == 0) throw new RuntimeException("Can't pop from an empty array");
+
+				Object value;
+				if(numbers != null) {
+						value = numbers[--size];
+				}
+				else {
+						value = values[--size];
+						values[size] = null;
+				}
+				if(size == 0 && numbers == null) {
+						numbers = new double[values.length];
+						values = null;
+				}
+				return value;
+		}
+
+		private void box() {
+				values = new Object[numbers.length];
+				for(int i = 0; i < size; ++i) values[i] = numbers[i];
+				numbers = null;
+		}
+
+		private int checkIndex(Object index) {
+				int i = index(index);
+				if(i >= size) throw new RuntimeException("Array index " + i + " out of bounds for length " + size);
+				return i;
+		}
+
+		private static int index(Object value) {
+				if(!(value instanceof Double)) throw new RuntimeException("Array index must be a number");
+				double d = (double) value;
+				if(d < 0 || d != Math.floor(d) || d > Integer.MAX_VALUE) throw new RuntimeException("Invalid array index " + d);
+				return (int) d;
+		}
+
+		private static LoxArray array(Object value) {
+				if(value instanceof LoxArray) return (LoxArray) value;
+				throw new RuntimeException("Expected an array");
+		}
+
+		@Override
+		public String toString() {
+				StringBuilder builder = new StringBuilder("[");
+				for(int i = 0; i < size; ++i) {
+						if(i > 0) builder.append(", ");
+						builder.append(numbers != null ? (Object) numbers[i] : values[i]);
+				}
+				return builder.append("]").toString();
+		}
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs every script of a directory (all *.lox files) or of a manifest (one
+// path per line, relative to the manifest, '#' starts a comment) in parallel,
+// each in its own isolate. An optional prelude is compiled once and run in
+// front of every script. Each script writes <name>.out and <name>.err to the
+// output directory, where name is its path relative to the directory or the
+// manifest, with a numbered suffix if that is taken, and a summary of statuses
+// and timings is printed and saved as summary.txt. A script whose output files
+// can't be written fails with status 74, and one that overflows the stack with
+// status 70, without stopping the others.
+public class LoxBatch {
+		private static class Result {
+				final Path script;
+				final int status;
+				final long nanos;
+				final Scheduler.Slot slot;
+
+				Result(Path script, int status, long nanos, Scheduler.Slot slot) {
+						this.script = script;
+						this.status = status;
+						this.nanos = nanos;
+						this.slot = slot;
+				}
+		}
+
+		private final Path source;
+		private final Path prelude;
+		private final Path outputDirectory;
+		private final Budget limits;
+		private final PrintStream out;
+		private final PrintStream err;
+		private final Scheduler scheduler = new Scheduler();
+
+		// limits, if not null, are applied to every script separately.
+		LoxBatch(Path source, Path prelude, Path outputDirectory, Budget limits, PrintStream out, PrintStream err) {
+				this.source = source;
+				this.prelude = prelude;
+				this.outputDirectory = outputDirectory;
+				this.limits = limits;
+				this.out = out;
+				this.err = err;
+		}
+
+		public int run() throws IOException {
+				Program shared = null;
+				if(prelude != null) {
+						Lox compiler = new Lox(InputStream.nullInputStream(), out, err, prelude.toAbsolutePath().getParent());
+						shared = compiler.compile(read(prelude));
+						if(shared == null) return 65;
+				}
+
+				Files.createDirectories(outputDirectory);
+				long start = System.nanoTime();
+				List<Result> results = new ArrayList<>();
+
+				// A thread per script, since the scheduler decides which of them run.
+				try(LoxExecutor executor = new LoxExecutor(LoxExecutor.newVirtualThreadExecutor(Executors::newCachedThreadPool))) {
+						List<Future<Result>> futures = new ArrayList<>();
+						Set<String> names = new HashSet<>();
+						for(Path script : scripts()) {
+								Program preludeProgram = shared;
+								String name = outputName(script, names);
+								futures.add(executor.submit(() -> runScript(script, name, preludeProgram)));
+						}
+						for(Future<Result> future : futures) results.add(future.get());
+				}
+				catch(InterruptedException | ExecutionException e) {
+						err.println("Batch interrupted: " + e.getMessage());
+						return 70;
+				}
+
+				return summarize(results, System.nanoTime() - start);
+		}
+
+		private Result runScript(Path script, String name, Program preludeProgram) {
+				long start = System.nanoTime();
+				Scheduler.Slot slot = scheduler.admit(name);
+				Path output = outputDirectory.resolve(name);
+				try {
+						Files.createDirectories(output.getParent());
+				}
+				catch(IOException e) {
+						return failed(script, name, e, start, slot);
+				}
+				try(PrintStream scriptOut = new PrintStream(Files.newOutputStream(output.resolveSibling(output.getFileName() + ".out")));
+						PrintStream scriptErr = new PrintStream(Files.newOutputStream(output.resolveSibling(output.getFileName() + ".err")))) {
+						Lox isolate = new Lox(InputStream.nullInputStream(), scriptOut, scriptErr, script.getParent());
+						if(limits != null) isolate.limit(new Budget(limits));
+
+						int status;
+						try {
+								status = scheduler.run(slot, isolate, () -> isolate.run(read(script), preludeProgram));
+						}
+						catch(IOException | RuntimeException e) {
+								scriptErr.println(e.getMessage());
+								status = e instanceof IOException ? 66 : 65;
+						}
+						catch(StackOverflowError e) {
+								scriptErr.println("Stack overflow");
+								status = 70;
+						}
+						return new Result(script, status, System.nanoTime() - start, slot);
+				}
+				catch(IOException e) {
+						return failed(script, name, e, start, slot);
+				}
+		}
+
+		private Result failed(Path script, String name, IOException e, long start, Scheduler.Slot slot) {
+				synchronized(err) {
+						err.println("Can't write the output of " + name + ": " + e.getMessage());
+				}
+				return new Result(script, 74, System.nanoTime() - start, slot);
+		}
+
+		// script's path relative to the directory or manifest, or its file name if
+		// it is outside of that, with a numbered suffix if taken already has it.
+		private String outputName(Path script, Set<String> taken) {
+				Path root = (Files.isDirectory(source) ? source : source.toAbsolutePath().getParent()).toAbsolutePath().normalize();
+				Path path = script.toAbsolutePath().normalize();
+				String name = path.startsWith(root) ? root.relativize(path).toString() : path.getFileName().toString();
+				String unique = name;
+				for(int n = 2; !taken.add(unique); ++n) unique = name + "~" + n;
+				return unique;
+		}
+
+		private int summarize(List<Result> results, long wallNanos) throws IOException {
+				List<String> lines = new ArrayList<>();
+				int failed = 0;
+				int worst = 0;
+				long scriptNanos = 0;
+				for(Result result : results) {
+						lines.add(String.format("%3d %10.3f ms %5.1f%% cpu %10.3f ms queued  %s", result.status, result.nanos / 1e6,
+								result.slot.runNanos() * 100.0 / Math.max(1, result.nanos), result.slot.queueNanos() / 1e6, result.script));
+						if(result.status != 0) failed++;
+						worst = Math.max(worst, result.status);
+						scriptNanos += result.nanos;
+				}
+				lines.add(String.format("%d scripts, %d failed, %.3f ms in scripts, %.3f ms wall, queue latency p50 %.3f ms p99 %.3f ms",
+						results.size(), failed, scriptNanos / 1e6, wallNanos / 1e6, scheduler.queuePercentile(50) / 1e6, scheduler.queuePercentile(99) / 1e6));
+
+				for(String line : lines) out.println(line);
+				Files.write(outputDirectory.resolve("summary.txt"), lines);
+				return worst;
+		}
+
+		private List<Path> scripts() throws IOException {
+				List<Path> scripts = new ArrayList<>();
+				if(Files.isDirectory(source)) {
+						try(DirectoryStream<Path> entries = Files.newDirectoryStream(source, "*.lox")) {
+								for(Path entry : entries) scripts.add(entry);
+						}
+						scripts.sort(null);
+				}
+				else {
+						for(String line : Files.readAllLines(source, Charset.defaultCharset())) {
+								line = line.trim();
+								if(line.isEmpty() || line.startsWith("#")) continue;
+								scripts.add(source.toAbsolutePath().getParent().resolve(line));
+						}
+				}
+				return scripts;
+		}
+
+		private static String read(Path path) throws IOException {
+				return new String(Files.readAllBytes(path), Charset.defaultCharset());
+		}
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs a script, compiled once, warmup + iterations times, each time in a
+// fresh isolate whose output is discarded, and reports the wall time
+// distribution, the bytes allocated by the running thread and the garbage
+// collections of the measured runs. The results can be saved as JSON and
+// compared against such a file saved earlier.
+public class LoxBench {
+		private static final Pattern JSON_NUMBER = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.eE+-]+)");
+
+		private final Path script;
+		private final int warmup;
+		private final int iterations;
+		private final Path json;
+		private final Path baseline;
+		private final PrintStream out;
+		private final PrintStream err;
+
+		LoxBench(Path script, int warmup, int iterations, Path json, Path baseline, PrintStream out, PrintStream err) {
+				this.script = script;
+				this.warmup = warmup;
+				this.iterations = iterations;
+				this.json = json;
+				this.baseline = baseline;
+				this.out = out;
+				this.err = err;
+		}
+
+		public int run() throws IOException {
+				Path directory = script.toAbsolutePath().getParent();
+				Lox compiler = new Lox(InputStream.nullInputStream(), out, err, directory);
+				Program program = compiler.compile(new String(Files.readAllBytes(script), Charset.defaultCharset()));
+				if(program == null) return 65;
+
+				PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+				for(int i = 0; i < warmup; ++i) {
+						int status = new Lox(InputStream.nullInputStream(), discard, err, directory).run(program);
+						if(status != 0) return status;
+				}
+
+				long[] nanos = new long[iterations];
+				long[] allocated = new long[iterations];
+				long gcCount = -gcCount();
+				long gcMillis = -gcMillis();
+				for(int i = 0; i < iterations; ++i) {
+						Lox isolate = new Lox(InputStream.nullInputStream(), discard, err, directory);
+						long bytes = allocatedBytes();
+						long start = System.nanoTime();
+						int status = isolate.run(program);
+						nanos[i] = System.nanoTime() - start;
+						allocated[i] = allocatedBytes() - bytes;
+						if(status != 0) return status;
+				}
+				gcCount += gcCount();
+				gcMillis += gcMillis();
+
+				Arrays.sort(nanos);
+				Arrays.sort(allocated);
+				Map<String, Double> results = new HashMap<>();
+				results.put("minNanos", (double) nanos[0]);
+				results.put("medianNanos", (double) percentile(nanos, 50));
+				results.put("p99Nanos", (double) percentile(nanos, 99));
+				results.put("allocatedBytes", allocatedBytes() < 0 ? -1.0 : (double) percentile(allocated, 50));
+				results.put("gcCount", (double) gcCount);
+				results.put("gcMillis", (double) gcMillis);
+
+				report(results);
+				if(json != null) Files.write(json, json(results).getBytes(Charset.defaultCharset()));
+				if(baseline != null) compare(results, read(baseline));
+				return 0;
+		}
+
+		private void report(Map<String, Double> results) {
+				out.println(script + ": " + iterations + " runs after " + warmup + " warmup runs");
+				out.printf("  time   min %.3f ms  median %.3f ms  p99 %.3f ms%n",
+						results.get("minNanos") / 1e6, results.get("medianNanos") / 1e6, results.get("p99Nanos") / 1e6);
+				if(results.get("allocatedBytes") >= 0) out.printf("  alloc  %.0f bytes per run (median)%n", results.get("allocatedBytes"));
+				out.printf("  gc     %.0f collections, %.0f ms%n", results.get("gcCount"), results.get("gcMillis"));
+		}
+
+		private void compare(Map<String, Double> results, Map<String, Double> base) {
+				out.println("  against " + baseline + ":");
+				for(String key : new String[] {"minNanos", "medianNanos", "p99Nanos", "allocatedBytes"}) {
+						Double before = base.get(key);
+						double now = results.get(key);
+						if(before == null || before <= 0 || now < 0) continue;
+						out.printf("    %-15s %+.1f%%%n", key, (now - before) * 100 / before);
+				}
+		}
+
+		private String json(Map<String, Double> results) {
+				StringBuilder builder = new StringBuilder("{\n");
+				builder.append("  \"script\": \"").append(script.toString().replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+				builder.append("  \"warmup\": ").append(warmup).append(",\n");
+				builder.append("  \"iterations\": ").append(iterations);
+				for(String key : new String[] {"minNanos", "medianNanos", "p99Nanos", "allocatedBytes", "gcCount", "gcMillis"}) {
+						builder.append(",\n  \"").append(key).append("\": ").append(results.get(key).longValue());
+				}
+				return builder.append("\n}\n").toString();
+		}
+
+		// Only the numeric fields of a file written by json() are needed.
+		private static Map<String, Double> read(Path file) throws IOException {
+				Map<String, Double> values = new HashMap<>();
+				Matcher matcher = JSON_NUMBER.matcher(new String(Files.readAllBytes(file), Charset.defaultCharset()));
+				while(matcher.find()) values.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+				return values;
+		}
+
+		// Nearest-rank percentile of sorted values.
+		private static long percentile(long[] sorted, int percent) {
+				int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+				return sorted[Math.max(0, rank - 1)];
+		}
+
+		// Bytes allocated so far by this thread, or -1 if the JVM can't tell. Work
+		// done by spawned tasks or parallel natives on other threads isn't counted.
+		private static long allocatedBytes() {
+				java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+				if(!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+				return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		private static long gcCount() {
+				long count = 0;
+				for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+				return count;
+		}
+
+		private static long gcMillis() {
+				long millis = 0;
+				for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+				return millis;
+		}
+}
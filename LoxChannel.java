@@ -0,0 +1,30 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Unbounded FIFO channel between Lox tasks: send never blocks, recv waits
+// for a value.
+public class LoxChannel {
+		private static final Object NIL = new Object();
+
+		private final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+		public void send(Object value) {
+				values.add(value == null ? NIL : value);
+		}
+
+		public Object recv() {
+				try {
+						Object value = values.take();
+						return value == NIL ? null : value;
+				}
+				catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException("recv interrupted");
+				}
+		}
+
+		@Override
+		public String toString() {
+				return "<chan>";
+		}
+}
@@ -21,6 +21,7 @@ public class LoxClass implements LoxCallable {
 
 		@Override
 		public Object call(Interpreter interpreter, List<Object> arguments) {
+				if(interpreter.budget != null) interpreter.budget.allocate(Budget.INSTANCE_BYTES);
 				LoxInstance instance = new LoxInstance(this);
 				LoxFunction initializer = methods.containsKey("init") ? methods.get("init") : null;
 				if(initializer != null) initializer.bind(instance).call(interpreter, arguments);
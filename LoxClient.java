@@ -0,0 +1,68 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+// Thin client for LoxDaemon: java LoxClient socket [jlox arguments]
+public class LoxClient {
+		public static void main(String[] args) throws IOException {
+				if(args.length < 1) {
+						System.out.println("Usage: LoxClient socket [jlox arguments]");
+						System.exit(64);
+				}
+
+				try(SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+						channel.connect(UnixDomainSocketAddress.of(args[0]));
+
+						DataOutputStream request = new DataOutputStream(new BufferedOutputStream(LoxDaemon.output(channel)));
+						request.writeInt(args.length);
+						request.writeUTF(Paths.get("").toAbsolutePath().toString());
+						for(int i = 1; i < args.length; ++i) request.writeUTF(args[i]);
+						request.flush();
+
+						Thread input = new Thread(() -> forward(request));
+						input.setDaemon(true);
+						input.start();
+
+						DataInputStream response = new DataInputStream(new BufferedInputStream(LoxDaemon.input(channel)));
+						while(true) {
+								int tag = response.readUnsignedByte();
+								int length = response.readInt();
+								if(tag == LoxDaemon.EXIT) {
+										System.out.flush();
+										System.exit(length);
+								}
+
+								byte[] bytes = new byte[length];
+								response.readFully(bytes);
+								if(tag == LoxDaemon.STDOUT) System.out.write(bytes);
+								else System.err.write(bytes);
+						}
+				}
+		}
+
+		// Sends standard input as STDIN frames, and an empty one at its end.
+		private static void forward(DataOutputStream request) {
+				byte[] buffer = new byte[8192];
+				try {
+						int n;
+						while((n = System.in.read(buffer)) > 0) {
+								request.writeByte(LoxDaemon.STDIN);
+								request.writeInt(n);
+								request.write(buffer, 0, n);
+								request.flush();
+						}
+						request.writeByte(LoxDaemon.STDIN);
+						request.writeInt(0);
+						request.flush();
+				}
+				catch(IOException e) {
+						// The invocation is over.
+				}
+		}
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps a JVM running behind a Unix domain socket and runs one Lox invocation
+// per connection, each with its own Lox and Interpreter. The invocations
+// share the cores through a Scheduler; the arguments "--stats" print its
+// report instead of running a script.
+//
+// Protocol, see LoxClient:
+//   request:  working directory and arguments, as an int count followed by UTF strings,
+//             then STDIN frames as long as the client's standard input lasts
+//   response: frames of a one byte tag and an int length; STDOUT and STDERR frames
+//             carry that many bytes, the final EXIT frame carries the exit status
+//
+// STDIN frames carry that many bytes of input, an empty one ends it. They are
+// read while the invocation runs, so the REPL and --pipeline work as well.
+public class LoxDaemon {
+		static final int STDOUT = 1;
+		static final int STDERR = 2;
+		static final int EXIT = 3;
+		static final int STDIN = 4;
+
+		private final Path socket;
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		private final Scheduler scheduler = new Scheduler();
+		private static final int STDIN_BUFFER = 1 << 16;
+
+		LoxDaemon(Path socket) {
+				this.socket = socket;
+		}
+
+		public void serve() throws IOException {
+				Files.deleteIfExists(socket);
+				try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+						server.bind(UnixDomainSocketAddress.of(socket));
+						socket.toFile().deleteOnExit();
+						while(true) {
+								SocketChannel client = server.accept();
+								executor.execute(() -> handle(client));
+						}
+				}
+		}
+
+		private void handle(SocketChannel client) {
+				try(SocketChannel channel = client; PipedInputStream stdin = new PipedInputStream(STDIN_BUFFER)) {
+						DataInputStream request = new DataInputStream(new BufferedInputStream(input(channel)));
+						DataOutputStream response = new DataOutputStream(new BufferedOutputStream(output(channel)));
+
+						String[] strings = new String[request.readInt()];
+						for(int i = 0; i < strings.length; ++i) strings[i] = request.readUTF();
+						if(strings.length == 0) return;
+
+						String[] args = new String[strings.length - 1];
+						System.arraycopy(strings, 1, args, 0, args.length);
+
+						PipedOutputStream feed = new PipedOutputStream(stdin);
+						executor.execute(() -> forward(request, feed));
+
+						PrintStream out = new PrintStream(new FrameOutputStream(response, STDOUT), true);
+						PrintStream err = new PrintStream(new FrameOutputStream(response, STDERR), true);
+						Lox lox = new Lox(stdin, out, err, Paths.get(strings[0]));
+
+						int status;
+						try {
+								if(args.length == 1 && args[0].equals("--stats")) {
+										scheduler.report(out);
+										status = 0;
+								}
+								else {
+										status = scheduler.run(scheduler.admit(String.join(" ", args)), lox, () -> lox.runCommand(args));
+								}
+						}
+						catch(IOException | RuntimeException e) {
+								err.println(e.getMessage());
+								status = 74;
+						}
+						catch(StackOverflowError e) {
+								err.println("Stack overflow");
+								status = 70;
+						}
+						out.flush();
+						err.flush();
+
+						synchronized(response) {
+								response.writeByte(EXIT);
+								response.writeInt(status);
+								response.flush();
+						}
+				}
+				catch(IOException e) {
+						System.err.println("jlox daemon: " + e.getMessage());
+				}
+		}
+
+		// Copies the client's STDIN frames into feed until the empty one. Also ends
+		// when the invocation is over, which closes the pipe and the connection.
+		private static void forward(DataInputStream request, OutputStream feed) {
+				try(OutputStream stdin = feed) {
+						while(true) {
+								int tag = request.readUnsignedByte();
+								int length = request.readInt();
+								if(tag != STDIN || length == 0) return;
+								byte[] bytes = new byte[length];
+								request.readFully(bytes);
+								stdin.write(bytes);
+								stdin.flush();
+						}
+				}
+				catch(IOException e) {
+						// The invocation is over.
+				}
+		}
+
+		// Streams over a socket channel that can read and write at the same time;
+		// those of Channels hold the channel's blocking lock while they read.
+		static InputStream input(SocketChannel channel) {
+				return new InputStream() {
+						@Override
+						public int read() throws IOException {
+								byte[] b = new byte[1];
+								return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+						}
+
+						@Override
+						public int read(byte[] b, int off, int len) throws IOException {
+								return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+						}
+				};
+		}
+
+		static OutputStream output(SocketChannel channel) {
+				return new OutputStream() {
+						@Override
+						public void write(int b) throws IOException {
+								write(new byte[] { (byte) b }, 0, 1);
+						}
+
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+								ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+								while(buffer.hasRemaining()) channel.write(buffer);
+						}
+				};
+		}
+
+		private static class FrameOutputStream extends OutputStream {
+				private final DataOutputStream response;
+				private final int tag;
+
+				FrameOutputStream(DataOutputStream response, int tag) {
+						this.response = response;
+						this.tag = tag;
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+						write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+						synchronized(response) {
+								response.writeByte(tag);
+								response.writeInt(len);
+								response.write(b, off, len);
+						}
+				}
+
+				@Override
+				public void flush() throws IOException {
+						synchronized(response) {
+								response.flush();
+						}
+				}
+		}
+}
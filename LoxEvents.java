@@ -0,0 +1,52 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events of the interpreter, recorded while LoxMetrics is
+// enabled. The thresholds are defaults that a .jfc configuration can change.
+public class LoxEvents {
+		@Name("jlox.FunctionCall")
+		@Label("Lox Function Call")
+		@Category("Lox")
+		@Threshold("10 ms")
+		@StackTrace(false)
+		static class FunctionCall extends Event {
+				@Label("Function")
+				String function;
+
+				@Label("Line")
+				int line;
+		}
+
+		@Name("jlox.ScriptExecution")
+		@Label("Lox Script Execution")
+		@Category("Lox")
+		@StackTrace(false)
+		static class ScriptExecution extends Event {
+				@Label("Script")
+				String script;
+		}
+
+		@Name("jlox.Phase")
+		@Label("Lox Compile Phase")
+		@Description("Parsing or resolving a script")
+		@Category("Lox")
+		@StackTrace(false)
+		static class Phase extends Event {
+				@Label("Phase")
+				String phase;
+		}
+
+		@Name("jlox.RuntimeError")
+		@Label("Lox Runtime Error")
+		@Category("Lox")
+		@StackTrace(false)
+		static class RuntimeError extends Event {
+				@Label("Message")
+				String message;
+		}
+}
@@ -0,0 +1,57 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Runs compiled Programs concurrently, each in a fresh Lox isolate with its
+// own globals, environment, output and error state. Uses a virtual thread per
+// task when the JDK has them and a thread per core otherwise.
+public class LoxExecutor implements AutoCloseable {
+		private final ExecutorService executor;
+
+		LoxExecutor() {
+				this(newVirtualThreadExecutor(() -> Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())));
+		}
+
+		LoxExecutor(ExecutorService executor) {
+				this.executor = executor;
+		}
+
+		public Future<Integer> submit(Program program, PrintStream out, PrintStream err) {
+				return executor.submit(() -> {
+						Lox isolate = new Lox(InputStream.nullInputStream(), out, err, Paths.get(""));
+						return isolate.run(program);
+				});
+		}
+
+		public <T> Future<T> submit(Callable<T> task) {
+				return executor.submit(task);
+		}
+
+		// Waits for the submitted tasks; if interrupted, stops waiting and leaves
+		// the thread's interrupt flag set.
+		@Override
+		public void close() {
+				executor.shutdown();
+				try {
+						executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				}
+				catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+				}
+		}
+
+		static ExecutorService newVirtualThreadExecutor(Supplier<ExecutorService> fallback) {
+				try {
+						return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				}
+				catch(ReflectiveOperationException e) {
+						return fallback.get();
+				}
+		}
+}
@@ -4,6 +4,7 @@ public class LoxFunction implements LoxCallable {
 		private Stmt.Function declaration;
 		private Environment closure;
 		private boolean isInitializer;
+		private String label;
 
 		LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
 				this.declaration = declaration;
@@ -14,7 +15,13 @@ public class LoxFunction implements LoxCallable {
 		public LoxFunction bind(LoxInstance instance) {
 				Environment implicit_environment = new Environment(closure);
 				implicit_environment.define("this", instance);
-				return new LoxFunction(declaration, implicit_environment, isInitializer);
+				LoxFunction bound = new LoxFunction(declaration, implicit_environment, isInitializer);
+				bound.label = label;
+				return bound;
+		}
+
+		public Stmt.Function declaration() {
+				return declaration;
 		}
 
 		@Override
@@ -24,19 +31,52 @@ public class LoxFunction implements LoxCallable {
 
 		@Override
 		public Object call(Interpreter interpreter, List<Object> arguments) {
+				Budget budget = interpreter.budget;
+				if(budget != null) {
+						budget.step();
+						budget.enter(interpreter.depth + 1);
+						budget.allocate(Budget.ENVIRONMENT_BYTES);
+				}
+				if(interpreter.slot != null) interpreter.slot.tick();
 				Environment env = new Environment(closure);
 
 				for(int i = 0; i < declaration.arguments.size(); ++i) {
 						env.define(declaration.arguments.get(i).lexeme, arguments.get(i));
 				}
 
+				if(declaration.generator) return new LoxGenerator(declaration, env, interpreter.fork());
+
+				Profiler.ShadowStack stack = interpreter.profiler == null ? null : interpreter.shadowStack();
+				if(stack != null) stack.push(label());
+				LoxEvents.FunctionCall event = LoxMetrics.ENABLED ? LoxMetrics.enter() : null;
+				Instrumentation.Call timed = interpreter.instrumentation == null ? null : interpreter.instrumentation.enter(declaration);
+				interpreter.depth++;
 				try {
+						if(declaration.body instanceof TypeProfile.InlinedBody && !isInitializer) {
+								return interpreter.evaluate(((TypeProfile.InlinedBody) declaration.body).value(), env);
+						}
 						interpreter.executeBlock(declaration.body, env);
 				}
 				catch(Interpreter.Return returnValue) {
 						if(isInitializer) return closure.getAt(0, new Token(TokenType.THIS, "this", "this", -1));
 						return returnValue.value;
 				}
+				catch(StackOverflowError e) {
+						// Under a budget, running out of stack ends the script like a too deep call.
+						if(budget == null) throw e;
+						throw new RuntimeException("Stack overflow at call depth " + interpreter.depth);
+				}
+				finally {
+						interpreter.depth--;
+						if(stack != null) stack.pop();
+						if(event != null) LoxMetrics.exit(event, declaration);
+						if(timed != null) timed.exit();
+				}
 				return null;
 		}
+
+		String label() {
+				if(label == null) label = declaration.name.lexeme + ":" + declaration.name.line;
+				return label;
+		}
 }
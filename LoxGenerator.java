@@ -0,0 +1,166 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+// The suspended call of a function containing 'yield'. Calling the generator
+// resumes the body until the next yield and returns the yielded value; once
+// the body has finished, done(generator) is true and calls return nil.
+//
+// Blocks, loops, ifs, yield, return and break of the generator's own body are
+// run from an explicit stack of frames instead of the Java stack, so
+// suspending is just returning from resume() and resuming is continuing the
+// loop over the same frames. Every other statement, and all expressions, are
+// executed by the generator's Interpreter as usual.
+public class LoxGenerator implements LoxCallable {
+		private abstract static class Frame {
+				final Environment previous;
+
+				Frame(Environment previous) {
+						this.previous = previous;
+				}
+
+				abstract Stmt next();
+		}
+
+		private static class BlockFrame extends Frame {
+				final List<Stmt> statements;
+				int index = 0;
+
+				BlockFrame(List<Stmt> statements, Environment previous) {
+						super(previous);
+						this.statements = statements;
+				}
+
+				@Override
+				Stmt next() {
+						return index < statements.size() ? statements.get(index++) : null;
+				}
+		}
+
+		private class WhileFrame extends Frame {
+				final Stmt.While loop;
+
+				WhileFrame(Stmt.While loop, Environment previous) {
+						super(previous);
+						this.loop = loop;
+				}
+
+				@Override
+				Stmt next() {
+						if(interpreter.budget != null) interpreter.budget.step();
+						if(interpreter.slot != null) interpreter.slot.tick();
+						return interpreter.isTruthy(loop.condition.accept(interpreter)) ? loop.body : null;
+				}
+		}
+
+		private final String name;
+		private final String label;
+		private final Interpreter interpreter;
+		private final Deque<Frame> frames = new ArrayDeque<>();
+		private boolean done = false;
+
+		LoxGenerator(Stmt.Function declaration, Environment environment, Interpreter interpreter) {
+				this.name = declaration.name.lexeme;
+				this.label = name + ":" + declaration.name.line;
+				this.interpreter = interpreter;
+				interpreter.environment = environment;
+				frames.push(new BlockFrame(declaration.body, environment));
+		}
+
+		static void defineNatives(Environment globals) {
+				globals.define("done", new NativeFunction("done", 1, (interpreter, arguments) -> {
+						if(!(arguments.get(0) instanceof LoxGenerator)) throw new RuntimeException("Expected a generator");
+						return ((LoxGenerator) arguments.get(0)).done;
+				}));
+		}
+
+		@Override
+		public int arity() {
+				return 0;
+		}
+
+		@Override
+		public Object call(Interpreter caller, List<Object> arguments) {
+				Profiler.ShadowStack stack = caller.profiler == null ? null : caller.shadowStack();
+				if(stack == null) return resume();
+
+				stack.push(label);
+				try {
+						return resume();
+				}
+				finally {
+						stack.pop();
+				}
+		}
+
+		public synchronized Object resume() {
+				try {
+						while(!frames.isEmpty()) {
+								Frame frame = frames.peek();
+								Stmt next = frame.next();
+								if(next == null) {
+										frames.pop();
+										interpreter.environment = frame.previous;
+										continue;
+								}
+
+								if(next instanceof Stmt.Yield) {
+										Stmt.Yield yield = (Stmt.Yield) next;
+										return yield.value == null ? null : yield.value.accept(interpreter);
+								}
+								if(next instanceof Stmt.Return) {
+										Stmt.Return ret = (Stmt.Return) next;
+										Object value = ret.value == null ? null : ret.value.accept(interpreter);
+										finish();
+										return value;
+								}
+								execute(next);
+						}
+						finish();
+						return null;
+				}
+				catch(RuntimeException e) {
+						finish();
+						throw e;
+				}
+		}
+
+		private void execute(Stmt stmt) {
+				if(stmt instanceof Stmt.Block) {
+						Environment previous = interpreter.environment;
+						if(interpreter.budget != null) interpreter.budget.allocate(Budget.ENVIRONMENT_BYTES);
+						interpreter.environment = new Environment(previous);
+						frames.push(new BlockFrame(((Stmt.Block) stmt).statements, previous));
+				}
+				else if(stmt instanceof Stmt.While) {
+						frames.push(new WhileFrame((Stmt.While) stmt, interpreter.environment));
+				}
+				else if(stmt instanceof Stmt.If) {
+						Stmt.If branch = (Stmt.If) stmt;
+						Stmt taken = interpreter.isTruthy(branch.condition.accept(interpreter)) ? branch.thenBranch : branch.elseBranch;
+						if(taken != null) frames.push(new BlockFrame(Arrays.asList(taken), interpreter.environment));
+				}
+				else if(stmt instanceof Stmt.Break) {
+						Frame frame;
+						do {
+								if(frames.isEmpty()) throw new RuntimeException("Can't use break outside of a loop");
+								frame = frames.pop();
+						} while(!(frame instanceof WhileFrame));
+						interpreter.environment = frame.previous;
+				}
+				else {
+						stmt.accept(interpreter);
+				}
+		}
+
+		private void finish() {
+				frames.clear();
+				done = true;
+		}
+
+		@Override
+		public String toString() {
+				return "<generator " + name + ">";
+		}
+}
@@ -7,6 +7,7 @@ public class LoxInstance {
 
 		LoxInstance(LoxClass klass) {
 				this.klass = klass;
+				if(LoxMetrics.ENABLED) LoxMetrics.instances.increment();
 		}
 
 		public Object get(Token name) {
@@ -18,6 +19,14 @@ public class LoxInstance {
 				throw new RuntimeException("Undefined property");
 		}
 
+		LoxClass klass() {
+				return klass;
+		}
+
+		boolean hasField(String name) {
+				return fields.containsKey(name);
+		}
+
 		public void set(Token name, Object value) {
 				fields.put(name.lexeme, value);
 		}
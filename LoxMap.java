@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Hash map value with the same key equality as Lox's '==': strings, numbers
+// and booleans by value, nil as a key of its own, and instances and every
+// other object by identity.
+//
+// Entries are stored densely in insertion order, which is also the iteration
+// order, and an open-addressing table of entry indices with linear probing
+// finds them. Each entry keeps its key's hash so that probing and growing
+// never rehash keys; String already caches its own hash code.
+public class LoxMap {
+		private static final int EMPTY = -1, DELETED = -2;
+		private static final Object DELETED_KEY = new Object();
+
+		private Object[] keys = new Object[8];
+		private Object[] values = new Object[8];
+		private int[] hashes = new int[8];
+		private int[] slots = newSlots(16);
+		private int count = 0;
+		private int size = 0;
+
+		static void defineNatives(Environment globals) {
+				globals.define("keys", new NativeFunction("keys", 1, (interpreter, arguments) -> {
+						LoxMap map = map(arguments.get(0));
+						if(interpreter.budget != null) interpreter.budget.allocate(Budget.ARRAY_BYTES + Budget.SLOT_BYTES * map.size);
+						LoxArray keys = new LoxArray(map.size);
+						for(int i = 0; i < map.count; ++i) {
+								if(map.keys[i] != DELETED_KEY) keys.add(map.keys[i]);
+						}
+						return keys;
+				}));
+				globals.define("has", new NativeFunction("has", 2, (interpreter, arguments) -> {
+						LoxMap map = map(arguments.get(0));
+						return map.find(arguments.get(1), hash(arguments.get(1))) >= 0;
+				}));
+				globals.define("remove", new NativeFunction("remove", 2, (interpreter, arguments) -> {
+						return map(arguments.get(0)).remove(arguments.get(1));
+				}));
+		}
+
+		public int size() {
+				return size;
+		}
+
+		// Returns nil for keys that aren't in the map.
+		public Object get(Object key) {
+				int slot = find(key, hash(key));
+				return slot < 0 ? null : values[slots[slot]];
+		}
+
+		// Returns whether the key is new to the map.
+		public boolean set(Object key, Object value) {
+				int hash = hash(key);
+				int slot = find(key, hash);
+				if(slot >= 0) {
+						values[slots[slot]] = value;
+						return false;
+				}
+
+				if((count + 1) * 4 > slots.length * 3) {
+						grow();
+				}
+				if(count == keys.length) {
+						keys = Arrays.copyOf(keys, count * 2);
+						values = Arrays.copyOf(values, count * 2);
+						hashes = Arrays.copyOf(hashes, count * 2);
+				}
+				keys[count] = key;
+				values[count] = value;
+				hashes[count] = hash;
+				insert(count, hash);
+				count++;
+				size++;
+				return true;
+		}
+
+		public Object remove(Object key) {
+				int slot = find(key, hash(key));
+				if(slot < 0) return null;
+
+				int entry = slots[slot];
+				Object value = values[entry];
+				slots[slot] = DELETED;
+				keys[entry] = DELETED_KEY;
+				values[entry] = null;
+				size--;
+				return value;
+		}
+
+		// Index into slots of the key's entry, or -1.
+		private int find(Object key, int hash) {
+				int mask = slots.length - 1;
+				for(int i = hash & mask; ; i = (i + 1) & mask) {
+						int entry = slots[i];
+						if(entry == EMPTY) return -1;
+						if(entry != DELETED && hashes[entry] == hash && same(keys[entry], key)) return i;
+				}
+		}
+
+		private void insert(int entry, int hash) {
+				int mask = slots.length - 1;
+				int i = hash & mask;
+				while(slots[i] >= 0) i = (i + 1) & mask;
+				slots[i] = entry;
+		}
+
+		// Drops deleted entries and rebuilds the table, which also clears the
+		// tombstones left in it.
+		private void grow() {
+				int live = 0;
+				for(int i = 0; i < count; ++i) {
+						if(keys[i] == DELETED_KEY) continue;
+						keys[live] = keys[i];
+						values[live] = values[i];
+						hashes[live] = hashes[i];
+						live++;
+				}
+				Arrays.fill(keys, live, count, null);
+				Arrays.fill(values, live, count, null);
+				count = live;
+
+				int capacity = 16;
+				while(capacity * 3 < (live + 1) * 8) capacity *= 2;
+				slots = newSlots(capacity);
+				for(int i = 0; i < count; ++i) insert(i, hashes[i]);
+		}
+
+		private static int[] newSlots(int capacity) {
+				int[] slots = new int[capacity];
+				Arrays.fill(slots, EMPTY);
+				return slots;
+		}
+
+		private static int hash(Object key) {
+				int h;
+				if(key == null) h = 0;
+				else if(key instanceof String || key instanceof Double || key instanceof Boolean) h = key.hashCode();
+				else h = System.identityHashCode(key);
+				return h ^ (h >>> 16);
+		}
+
+		private static boolean same(Object a, Object b) {
+				if(a == b) return true;
+				if(a == null || b == null) return false;
+				if(a instanceof String || a instanceof Double || a instanceof Boolean) return a.equals(b);
+				return false;
+		}
+
+		private static LoxMap map(Object value) {
+				if(value instanceof LoxMap) return (LoxMap) value;
+				throw new RuntimeException("Expected a map");
+		}
+
+		@Override
+		public String toString() {
+				StringBuilder builder = new StringBuilder("{");
+				for(int i = 0; i < count; ++i) {
+						if(keys[i] == DELETED_KEY) continue;
+						if(builder.length() > 1) builder.append(", ");
+						builder.append(keys[i]).append(": ").append(values[i]);
+				}
+				return builder.append("}").toString();
+		}
+}
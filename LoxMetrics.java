@@ -0,0 +1,94 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// JMX counters and Flight Recorder events, switched on with
+// -Djlox.metrics=true. ENABLED is a constant, so with the property unset the
+// JIT removes every 'if(LoxMetrics.ENABLED)' hook from the interpreter.
+public class LoxMetrics implements LoxMetricsMBean {
+		static final boolean ENABLED = Boolean.getBoolean("jlox.metrics");
+
+		static final LongAdder calls = new LongAdder();
+		static final LongAdder instances = new LongAdder();
+		static final LongAdder environments = new LongAdder();
+		static final LongAdder runtimeErrors = new LongAdder();
+		static final LongAdder depth = new LongAdder();
+
+		static {
+				if(ENABLED) {
+						try {
+								ManagementFactory.getPlatformMBeanServer().registerMBean(new LoxMetrics(), new ObjectName("jlox:type=Interpreter"));
+						}
+						catch(JMException e) {
+								System.err.println("jlox metrics not registered: " + e.getMessage());
+						}
+				}
+		}
+
+		static LoxEvents.FunctionCall enter() {
+				calls.increment();
+				depth.increment();
+				LoxEvents.FunctionCall event = new LoxEvents.FunctionCall();
+				event.begin();
+				return event;
+		}
+
+		static void exit(LoxEvents.FunctionCall event, Stmt.Function declaration) {
+				depth.decrement();
+				event.end();
+				if(event.shouldCommit()) {
+						event.function = declaration.name.lexeme;
+						event.line = declaration.name.line;
+						event.commit();
+				}
+		}
+
+		static LoxEvents.ScriptExecution beginScript(String script) {
+				LoxEvents.ScriptExecution event = new LoxEvents.ScriptExecution();
+				event.script = script;
+				event.begin();
+				return event;
+		}
+
+		static LoxEvents.Phase beginPhase(String phase) {
+				LoxEvents.Phase event = new LoxEvents.Phase();
+				event.phase = phase;
+				event.begin();
+				return event;
+		}
+
+		static void runtimeError(String message) {
+				runtimeErrors.increment();
+				LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+				if(event.isEnabled()) {
+						event.message = message;
+						event.commit();
+				}
+		}
+
+		@Override
+		public long getCallsExecuted() {
+				return calls.sum();
+		}
+
+		@Override
+		public long getInstancesAllocated() {
+				return instances.sum();
+		}
+
+		@Override
+		public long getEnvironmentsAllocated() {
+				return environments.sum();
+		}
+
+		@Override
+		public long getRuntimeErrors() {
+				return runtimeErrors.sum();
+		}
+
+		@Override
+		public long getStackDepth() {
+				return depth.sum();
+		}
+}
@@ -0,0 +1,10 @@
+// Interpreter counters published over JMX as jlox:type=Interpreter, summed
+// over every isolate in the JVM.
+public interface LoxMetricsMBean {
+		long getCallsExecuted();
+		long getInstancesAllocated();
+		long getEnvironmentsAllocated();
+		long getRuntimeErrors();
+		// Lox function calls in progress on all threads.
+		long getStackDepth();
+}
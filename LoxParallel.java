@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+// Data-parallel natives over a sequence, which is either a number n standing
+// for the indices 0 .. n-1, or an array:
+//
+//   parallelMap(seq, fn)           array of fn(element) for every element
+//   parallelReduce(seq, fn, init)  fn(fn(init, e0), e1) ... ; fn has to be
+//                                  associative with init as its identity
+//
+// If PurityAnalyzer proves fn free of side effects the sequence is split
+// across the common ForkJoinPool, each leaf running on a fork of the calling
+// Interpreter; otherwise the call runs sequentially on the caller.
+public class LoxParallel {
+		static void defineNatives(Environment globals) {
+				globals.define("parallelMap", new NativeFunction("parallelMap", 2, (interpreter, arguments) -> {
+						Object sequence = arguments.get(0);
+						LoxCallable fn = callback(arguments.get(1), 1);
+						int size = size(sequence);
+						// The results, and the array returned with them.
+						if(interpreter.budget != null) interpreter.budget.allocate(2 * (Budget.ARRAY_BYTES + Budget.SLOT_BYTES * (long) size));
+						Object[] results = new Object[size];
+
+						MapTask task = new MapTask(interpreter, fn, elements(sequence), results, 0, size, grain(size));
+						if(new PurityAnalyzer(interpreter).isPure(fn)) invoke(task);
+						else task.run(interpreter);
+
+						LoxArray array = new LoxArray(size);
+						for(Object result : results) array.add(result);
+						return array;
+				}));
+				globals.define("parallelReduce", new NativeFunction("parallelReduce", 3, (interpreter, arguments) -> {
+						Object sequence = arguments.get(0);
+						LoxCallable fn = callback(arguments.get(1), 2);
+						int size = size(sequence);
+
+						ReduceTask task = new ReduceTask(interpreter, fn, elements(sequence), arguments.get(2), 0, size, grain(size));
+						if(new PurityAnalyzer(interpreter).isPure(fn)) return invoke(task);
+						return task.run(interpreter);
+				}));
+		}
+
+		private static class MapTask extends RecursiveAction {
+				final Interpreter interpreter;
+				final LoxCallable fn;
+				final IntFunction<Object> elements;
+				final Object[] results;
+				final int from, to, grain;
+
+				MapTask(Interpreter interpreter, LoxCallable fn, IntFunction<Object> elements, Object[] results, int from, int to, int grain) {
+						this.interpreter = interpreter;
+						this.fn = fn;
+						this.elements = elements;
+						this.results = results;
+						this.from = from;
+						this.to = to;
+						this.grain = grain;
+				}
+
+				@Override
+				protected void compute() {
+						if(to - from <= grain) {
+								run(interpreter.fork());
+								return;
+						}
+						int middle = (from + to) >>> 1;
+						invokeAll(new MapTask(interpreter, fn, elements, results, from, middle, grain),
+								new MapTask(interpreter, fn, elements, results, middle, to, grain));
+				}
+
+				void run(Interpreter worker) {
+						for(int i = from; i < to; ++i) results[i] = fn.call(worker, Arrays.asList(elements.apply(i)));
+				}
+		}
+
+		private static class ReduceTask extends RecursiveTask<Object> {
+				final Interpreter interpreter;
+				final LoxCallable fn;
+				final IntFunction<Object> elements;
+				final Object initial;
+				final int from, to, grain;
+
+				ReduceTask(Interpreter interpreter, LoxCallable fn, IntFunction<Object> elements, Object initial, int from, int to, int grain) {
+						this.interpreter = interpreter;
+						this.fn = fn;
+						this.elements = elements;
+						this.initial = initial;
+						this.from = from;
+						this.to = to;
+						this.grain = grain;
+				}
+
+				@Override
+				protected Object compute() {
+						if(to - from <= grain) return run(interpreter.fork());
+
+						int middle = (from + to) >>> 1;
+						ReduceTask left = new ReduceTask(interpreter, fn, elements, initial, from, middle, grain);
+						ReduceTask right = new ReduceTask(interpreter, fn, elements, initial, middle, to, grain);
+						left.fork();
+						Object rightValue = right.compute();
+						Object leftValue = left.join();
+						return fn.call(interpreter.fork(), Arrays.asList(leftValue, rightValue));
+				}
+
+				Object run(Interpreter worker) {
+						Object value = initial;
+						for(int i = from; i < to; ++i) value = fn.call(worker, Arrays.asList(value, elements.apply(i)));
+						return value;
+				}
+		}
+
+		private static <T> T invoke(ForkJoinTask<T> task) {
+				try {
+						return ForkJoinPool.commonPool().invoke(task);
+				}
+				catch(RuntimeException e) {
+						// A runtime error from another worker is rethrown as a copy wrapping it.
+						if(e.getCause() instanceof RuntimeException && e.getCause().getClass() == e.getClass()) throw (RuntimeException) e.getCause();
+						throw e;
+				}
+		}
+
+		// A few leaves per worker, so that uneven elements still balance out.
+		private static int grain(int size) {
+				return Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+		}
+
+		private static int size(Object sequence) {
+				if(sequence instanceof LoxArray) return ((LoxArray) sequence).size();
+				if(sequence instanceof Double) {
+						double n = (double) sequence;
+						if(n >= 0 && n == Math.floor(n) && n <= Integer.MAX_VALUE) return (int) n;
+				}
+				throw new RuntimeException("Expected an array or a non-negative integer");
+		}
+
+		private static IntFunction<Object> elements(Object sequence) {
+				if(sequence instanceof LoxArray) return ((LoxArray) sequence)::at;
+				return i -> (double) i;
+		}
+
+		private static LoxCallable callback(Object value, int arity) {
+				if(!(value instanceof LoxCallable) || ((LoxCallable) value).arity() != arity)
+						throw new RuntimeException("Expected a function taking " + arity + " arguments");
+				return (LoxCallable) value;
+		}
+}
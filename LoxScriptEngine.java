@@ -0,0 +1,175 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// JSR-223 engine. Every evaluation runs in a fresh Lox isolate whose globals
+// start with the global scope bindings and then the engine scope bindings,
+// converted like the results of JavaInterop calls, and whose output goes to
+// the context's writers. Afterwards the engine scope receives the globals the
+// script defined or assigned, and eval returns the value of the script's last
+// statement if that is an expression statement, with Java objects unwrapped.
+// Bindings the script left alone keep the host's objects.
+//
+// compile() parses and resolves once; the CompiledScript can then be
+// evaluated any number of times, from any thread, against other bindings.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+		// Names the interpreter defines itself, which aren't copied back.
+		private static final Set<String> NATIVES = new Lox(InputStream.nullInputStream(), System.out, System.err, Paths.get(""))
+				.globals().values.keySet().stream().collect(Collectors.toSet());
+
+		private final ScriptEngineFactory factory;
+
+		LoxScriptEngine(ScriptEngineFactory factory) {
+				this.factory = factory;
+		}
+
+		private class LoxCompiledScript extends CompiledScript {
+				final Program program;
+
+				LoxCompiledScript(Program program) {
+						this.program = program;
+				}
+
+				@Override
+				public Object eval(ScriptContext context) throws ScriptException {
+						return evaluate(program, context);
+				}
+
+				@Override
+				public ScriptEngine getEngine() {
+						return LoxScriptEngine.this;
+				}
+		}
+
+		@Override
+		public CompiledScript compile(String script) throws ScriptException {
+				Lox compiler = new Lox(InputStream.nullInputStream(), discard(), discard(), Paths.get(""));
+				Program program = compiler.compile(script);
+				if(program == null) throw new ScriptException(compiler.firstError());
+				return new LoxCompiledScript(program);
+		}
+
+		@Override
+		public CompiledScript compile(Reader script) throws ScriptException {
+				return compile(read(script));
+		}
+
+		@Override
+		public Object eval(String script, ScriptContext context) throws ScriptException {
+				return compile(script).eval(context);
+		}
+
+		@Override
+		public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+				return eval(read(reader), context);
+		}
+
+		@Override
+		public Bindings createBindings() {
+				return new SimpleBindings();
+		}
+
+		@Override
+		public ScriptEngineFactory getFactory() {
+				return factory;
+		}
+
+		private Object evaluate(Program program, ScriptContext context) throws ScriptException {
+				PrintStream out = new PrintStream(new WriterOutputStream(context.getWriter()), true);
+				PrintStream err = new PrintStream(new WriterOutputStream(context.getErrorWriter()), true);
+				Lox lox = new Lox(InputStream.nullInputStream(), out, err, Paths.get(""));
+
+				// The Lox values the bindings started as, to leave those the script
+				// didn't assign as the host's objects.
+				Map<String, Object> defined = new HashMap<>();
+				Environment globals = lox.globals();
+				define(globals, context.getBindings(ScriptContext.GLOBAL_SCOPE), defined);
+				Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+				define(globals, engine, defined);
+
+				Object value = lox.evaluate(program);
+				out.flush();
+				err.flush();
+				if(lox.status() != 0) throw new ScriptException(lox.firstError());
+
+				if(engine != null) {
+						for(Map.Entry<String, Object> global : globals.values.entrySet()) {
+								String name = global.getKey();
+								boolean changed = defined.containsKey(name) ? defined.get(name) != global.getValue() : !NATIVES.contains(name);
+								if(changed) engine.put(name, JavaInterop.toJava(global.getValue()));
+						}
+				}
+				return JavaInterop.toJava(value);
+		}
+
+		private static void define(Environment globals, Bindings bindings, Map<String, Object> defined) {
+				if(bindings == null) return;
+				for(Map.Entry<String, Object> binding : bindings.entrySet()) {
+						Object value = JavaInterop.fromJava(binding.getValue());
+						globals.define(binding.getKey(), value);
+						defined.put(binding.getKey(), value);
+				}
+		}
+
+		private static String read(Reader reader) throws ScriptException {
+				try(BufferedReader buffered = new BufferedReader(reader)) {
+						return buffered.lines().collect(Collectors.joining("\n"));
+				}
+				catch(IOException e) {
+						throw new ScriptException(e);
+				}
+		}
+
+		private static PrintStream discard() {
+				return new PrintStream(OutputStream.nullOutputStream());
+		}
+
+		// Bytes printed by the interpreter, decoded and passed on to a Writer at
+		// every flush.
+		private static class WriterOutputStream extends OutputStream {
+				private final Writer writer;
+				private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+				WriterOutputStream(Writer writer) {
+						this.writer = writer;
+				}
+
+				@Override
+				public void write(int b) {
+						buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+						buffer.write(b, off, len);
+				}
+
+				@Override
+				public void flush() throws IOException {
+						if(writer == null || buffer.size() == 0) return;
+						writer.write(buffer.toString(Charset.defaultCharset()));
+						writer.flush();
+						buffer.reset();
+				}
+		}
+}
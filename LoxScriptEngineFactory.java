@@ -0,0 +1,83 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+// Registered in META-INF/services, so that ScriptEngineManager finds the
+// engine by the name "lox" or "jlox", the extension "lox" or its MIME type.
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+		private static final List<String> NAMES = Arrays.asList("lox", "jlox");
+		private static final List<String> EXTENSIONS = Arrays.asList("lox");
+		private static final List<String> MIME_TYPES = Arrays.asList("application/x-lox", "text/x-lox");
+
+		@Override
+		public String getEngineName() {
+				return "jlox";
+		}
+
+		@Override
+		public String getEngineVersion() {
+				return "1.0";
+		}
+
+		@Override
+		public List<String> getExtensions() {
+				return EXTENSIONS;
+		}
+
+		@Override
+		public List<String> getMimeTypes() {
+				return MIME_TYPES;
+		}
+
+		@Override
+		public List<String> getNames() {
+				return NAMES;
+		}
+
+		@Override
+		public String getLanguageName() {
+				return "Lox";
+		}
+
+		@Override
+		public String getLanguageVersion() {
+				return "1.0";
+		}
+
+		// Evaluations don't share state, so the engine can be used from several
+		// threads at once.
+		@Override
+		public Object getParameter(String key) {
+				switch(key) {
+						case ScriptEngine.ENGINE: return getEngineName();
+						case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+						case ScriptEngine.NAME: return NAMES.get(0);
+						case ScriptEngine.LANGUAGE: return getLanguageName();
+						case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+						case "THREADING": return "MULTITHREADED";
+						default: return null;
+				}
+		}
+
+		@Override
+		public String getMethodCallSyntax(String object, String method, String... arguments) {
+				return object + "." + method + "(" + String.join(", ", arguments) + ")";
+		}
+
+		@Override
+		public String getOutputStatement(String toDisplay) {
+				return "print \"" + toDisplay.replace("\"", "") + "\";";
+		}
+
+		@Override
+		public String getProgram(String... statements) {
+				return Arrays.stream(statements).map(s -> s.endsWith(";") || s.endsWith("}") ? s : s + ";").collect(Collectors.joining("\n"));
+		}
+
+		@Override
+		public ScriptEngine getScriptEngine() {
+				return new LoxScriptEngine(this);
+		}
+}
@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+// Fixed-length vector of numbers backed by a double[]. The bulk natives
+// return new vectors and run on SimdKernels when the Vector API module is
+// available, otherwise on plain loops:
+//
+//   vec(n)  vec(array)           zero vector of length n, or a copy of an array of numbers
+//   vget(v, i)  vset(v, i, x)    element access
+//   vadd(a, b)  vmul(a, b)       element-wise arithmetic
+//   vscale(a, k)                 every element times k
+//   vdot(a, b)  vsum(a)          reductions; the SIMD kernels add up lanes
+//                                separately, which can change the last bits
+//   vlt(a, b)  vgt(a, b)  veq(a, b)   masks of 1 where the comparison holds, 0 elsewhere
+public class LoxVector {
+		static final VectorKernels KERNELS = loadKernels();
+
+		final double[] values;
+
+		LoxVector(double[] values) {
+				this.values = values;
+		}
+
+		static void defineNatives(Environment globals) {
+				globals.define("vec", new NativeFunction("vec", 1, (interpreter, arguments) -> {
+						Object source = arguments.get(0);
+						if(source instanceof Double) return new LoxVector(allocate(interpreter, index(source, Integer.MAX_VALUE)));
+						if(source instanceof LoxArray && ((LoxArray) source).numbers() != null) {
+								LoxArray array = (LoxArray) source;
+								charge(interpreter, array.size());
+								return new LoxVector(Arrays.copyOf(array.numbers(), array.size()));
+						}
+						throw new RuntimeException("Expected a length or an array of numbers");
+				}));
+				globals.define("vget", new NativeFunction("vget", 2, (interpreter, arguments) -> {
+						LoxVector v = vector(arguments.get(0));
+						return v.values[index(arguments.get(1), v.values.length - 1)];
+				}));
+				globals.define("vset", new NativeFunction("vset", 3, (interpreter, arguments) -> {
+						LoxVector v = vector(arguments.get(0));
+						if(!(arguments.get(2) instanceof Double)) throw new RuntimeException("Vectors can only hold numbers");
+						v.values[index(arguments.get(1), v.values.length - 1)] = (double) arguments.get(2);
+						return arguments.get(2);
+				}));
+				globals.define("vadd", new NativeFunction("vadd", 2, (interpreter, arguments) -> {
+						double[] a = vector(arguments.get(0)).values, b = values(arguments.get(1), a.length);
+						double[] out = allocate(interpreter, a.length);
+						KERNELS.add(a, b, out);
+						return new LoxVector(out);
+				}));
+				globals.define("vmul", new NativeFunction("vmul", 2, (interpreter, arguments) -> {
+						double[] a = vector(arguments.get(0)).values, b = values(arguments.get(1), a.length);
+						double[] out = allocate(interpreter, a.length);
+						KERNELS.mul(a, b, out);
+						return new LoxVector(out);
+				}));
+				globals.define("vscale", new NativeFunction("vscale", 2, (interpreter, arguments) -> {
+						double[] a = vector(arguments.get(0)).values;
+						if(!(arguments.get(1) instanceof Double)) throw new RuntimeException("Expected a number to scale by");
+						double[] out = allocate(interpreter, a.length);
+						KERNELS.scale(a, (double) arguments.get(1), out);
+						return new LoxVector(out);
+				}));
+				globals.define("vdot", new NativeFunction("vdot", 2, (interpreter, arguments) -> {
+						double[] a = vector(arguments.get(0)).values;
+						return KERNELS.dot(a, values(arguments.get(1), a.length));
+				}));
+				globals.define("vsum", new NativeFunction("vsum", 1, (interpreter, arguments) -> {
+						return KERNELS.sum(vector(arguments.get(0)).values);
+				}));
+				defineComparison(globals, "vlt", TokenType.LESS);
+				defineComparison(globals, "vgt", TokenType.GREATER);
+				defineComparison(globals, "veq", TokenType.EQUAL_EQUAL);
+		}
+
+		private static void defineComparison(Environment globals, String name, TokenType op) {
+				globals.define(name, new NativeFunction(name, 2, (interpreter, arguments) -> {
+						double[] a = vector(arguments.get(0)).values, b = values(arguments.get(1), a.length);
+						double[] out = allocate(interpreter, a.length);
+						KERNELS.compare(a, b, op, out);
+						return new LoxVector(out);
+				}));
+		}
+
+		// A zero vector's values, charged to the interpreter's budget first.
+		private static double[] allocate(Interpreter interpreter, int length) {
+				charge(interpreter, length);
+				return new double[length];
+		}
+
+		private static void charge(Interpreter interpreter, int length) {
+				if(interpreter.budget != null) interpreter.budget.allocate(Budget.ARRAY_BYTES + Budget.SLOT_BYTES * (long) length);
+		}
+
+		private static VectorKernels loadKernels() {
+				try {
+						return (VectorKernels) Class.forName("SimdKernels").getDeclaredConstructor().newInstance();
+				}
+				catch(ReflectiveOperationException | LinkageError e) {
+						return new VectorKernels.Scalar();
+				}
+		}
+
+		private static LoxVector vector(Object value) {
+				if(value instanceof LoxVector) return (LoxVector) value;
+				throw new RuntimeException("Expected a vector");
+		}
+
+		private static double[] values(Object value, int length) {
+				double[] values = vector(value).values;
+				if(values.length != length) throw new RuntimeException("Vector lengths differ: " + length + " and " + values.length);
+				return values;
+		}
+
+		private static int index(Object value, int max) {
+				if(!(value instanceof Double)) throw new RuntimeException("Expected a number");
+				double d = (double) value;
+				if(d < 0 || d > max || d != Math.floor(d)) throw new RuntimeException("Vector index " + d + " out of bounds");
+				return (int) d;
+		}
+
+		@Override
+		public String toString() {
+				StringBuilder builder = new StringBuilder("vec[");
+				for(int i = 0; i < values.length; ++i) {
+						if(i > 0) builder.append(", ");
+						builder.append(values[i]);
+				}
+				return builder.append("]").toString();
+		}
+}
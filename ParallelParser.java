@@ -0,0 +1,135 @@
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class ParallelParser {
+		private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+		private static class Chunk {
+				final int start;
+				final int end;
+				final int line;
+
+				Chunk(int start, int end, int line) {
+						this.start = start;
+						this.end = end;
+						this.line = line;
+				}
+		}
+
+		private final String source;
+		private final ForkJoinPool pool;
+		private final boolean lazyFunctions;
+		private final Lox lox;
+
+		ParallelParser(String source, boolean lazyFunctions, Lox lox) {
+				this(source, ForkJoinPool.commonPool(), lazyFunctions, lox);
+		}
+
+		ParallelParser(String source, ForkJoinPool pool, boolean lazyFunctions, Lox lox) {
+				this.source = source;
+				this.pool = pool;
+				this.lazyFunctions = lazyFunctions;
+				this.lox = lox;
+		}
+
+		public List<Stmt> parse() {
+				List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+				for(Chunk chunk : split()) {
+						tasks.add(pool.submit(() -> parseChunk(chunk)));
+				}
+
+				List<Stmt> statements = new ArrayList<Stmt>();
+				boolean failed = false;
+				for(ForkJoinTask<List<Stmt>> task : tasks) {
+						List<Stmt> parsed = task.join();
+						if(parsed == null) failed = true;
+						else statements.addAll(parsed);
+				}
+				return failed ? null : statements;
+		}
+
+		private List<Stmt> parseChunk(Chunk chunk) {
+				Tokenizer tokenizer = new Tokenizer(new StringReader(source.substring(chunk.start, chunk.end)), chunk.line, lox);
+				return new Parser(tokenizer, lazyFunctions, lox).parse();
+		}
+
+		// Cuts the source in front of a 'fun', 'class' or 'var' keyword that starts a
+		// new top-level declaration, i.e. one that follows a ';' or '}' outside of any
+		// braces or parentheses. Strings and comments are skipped so that their
+		// contents can't be mistaken for a boundary.
+		private List<Chunk> split() {
+				int target = Math.max(MIN_CHUNK_SIZE, source.length() / (pool.getParallelism() * 4));
+				List<Chunk> chunks = new ArrayList<>();
+
+				int chunkStart = 0;
+				int chunkLine = 1;
+				int line = 1;
+				int depth = 0;
+				char last = ';';
+				int i = 0;
+
+				while(i < source.length()) {
+						char c = source.charAt(i);
+
+						if(c == '\n') {
+								line++;
+								i++;
+						}
+						else if(c == '"') {
+								i++;
+								while(i < source.length() && source.charAt(i) != '"') {
+										if(source.charAt(i++) == '\n') line++;
+								}
+								i++;
+								last = c;
+						}
+						else if(c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '/') {
+								while(i < source.length() && source.charAt(i) != '\n') i++;
+						}
+						else if(c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '*') {
+								i += 2;
+								while(i < source.length() && !source.startsWith("*/", i)) {
+										if(source.charAt(i++) == '\n') line++;
+								}
+								i += 2;
+						}
+						else if(isAlpha(c)) {
+								int wordStart = i;
+								while(i < source.length() && (isAlpha(source.charAt(i)) || isDigit(source.charAt(i)))) i++;
+
+								if(depth == 0 && (last == ';' || last == '}') && wordStart - chunkStart >= target
+												&& isDeclarationKeyword(source.substring(wordStart, i))) {
+										chunks.add(new Chunk(chunkStart, wordStart, chunkLine));
+										chunkStart = wordStart;
+										chunkLine = line;
+								}
+								last = 'a';
+						}
+						else {
+								if(c == '{' || c == '(') depth++;
+								else if(c == '}' || c == ')') depth--;
+								if(!Character.isWhitespace(c)) last = c;
+								i++;
+						}
+				}
+				chunks.add(new Chunk(chunkStart, source.length(), chunkLine));
+				return chunks;
+		}
+
+		private boolean isDeclarationKeyword(String word) {
+				return word.equals("fun") || word.equals("class") || word.equals("var");
+		}
+
+		private boolean isAlpha(char c) {
+				return (c >= 'a' && c <= 'z') ||
+						   (c >= 'A' && c <= 'Z') ||
+						   c == '_';
+		}
+
+		private boolean isDigit(char c) {
+				return c >= '0' && c <= '9';
+		}
+}
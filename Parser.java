@@ -1,16 +1,43 @@
 import java.util.List;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.Supplier;
 
 public class Parser {
 
 		private static class ParseError extends RuntimeException {}
 
-		private List<Token> tokens;
-		private int current = 0;
+		private Supplier<Token> tokens;
+		private Token previous;
+		private Token next;
+		private boolean lazyFunctions;
+		private boolean sawYield = false;
+		private Lox lox;
 
-		Parser(List<Token> tokens) {
+		Parser(List<Token> tokens, Lox lox) {
+				this(tokens, false, lox);
+		}
+
+		Parser(List<Token> tokens, boolean lazyFunctions, Lox lox) {
+				this(tokens.iterator()::next, lazyFunctions, lox);
+		}
+
+		Parser(Tokenizer tokenizer, Lox lox) {
+				this(tokenizer, false, lox);
+		}
+
+		Parser(Tokenizer tokenizer, boolean lazyFunctions, Lox lox) {
+				this(tokenizer::nextToken, lazyFunctions, lox);
+		}
+
+		// Tokens are pulled one at a time, so the parser never holds more than the
+		// previous token and a single token of lookahead.
+		private Parser(Supplier<Token> tokens, boolean lazyFunctions, Lox lox) {
 				this.tokens = tokens;
+				this.lazyFunctions = lazyFunctions;
+				this.lox = lox;
 		}
 
 		public List<Stmt> parse() {
@@ -21,8 +48,18 @@ public class Parser {
 						}
 						return statements;
 				}
-				catch(RuntimeException e) {
-						System.out.println("Runtime exception for some reason");
+				catch(ParseError e) {
+						// Already reported through lox.error.
+				}
+				return null;
+		}
+
+		public Stmt parseNext() {
+				try {
+						return reachedEOF() ? null : declaration();
+				}
+				catch(ParseError e) {
+						// Already reported through lox.error.
 				}
 				return null;
 		}
@@ -48,6 +85,7 @@ public class Parser {
 				if(matchAny(TokenType.BREAK)) return breakStatement();
 				if(matchAny(TokenType.FUN)) return function("function");
 				if(matchAny(TokenType.RETURN)) return returnStatement();
+				if(matchAny(TokenType.YIELD)) return yieldStatement();
 				if(matchAny(TokenType.CLASS)) return classStatement();
 				return expressionStatement();
 		}
@@ -71,6 +109,15 @@ public class Parser {
 				return new Stmt.Class(name, methods, superclass);
 		}
 
+		private Stmt yieldStatement() {
+				Token token = previous();
+				Expr value = !check(TokenType.SEMICOLON) ? expression() : null;
+				consumeOrError(TokenType.SEMICOLON, "Expected ';' at the end of the yield statement");
+
+				sawYield = true;
+				return new Stmt.Yield(token, value);
+		}
+
 		private Stmt returnStatement() {
 				Token token = previous();
 				Expr returnExpression = !check(TokenType.SEMICOLON) ? expression() : null;
@@ -87,7 +134,7 @@ public class Parser {
 
 				if(!check(TokenType.RIGHT_PAREN)) {
 						do {
-								if(parameters.size() > 255) throw new RuntimeException("too many arguments");
+								if(parameters.size() > 255) throw error(peek(), "too many arguments");
 								parameters.add(consumeOrError(TokenType.IDENTIFIER, "expected argument"));
 						} while(matchAny(TokenType.COMMA));
 				}
@@ -95,8 +142,53 @@ public class Parser {
 				consumeOrError(TokenType.RIGHT_PAREN, "Expected ')' after function declaration");
 				consumeOrError(TokenType.LEFT_BRACE, "Expected a '{' after function def");
 
-				List<Stmt> body = getBlockStatements();
-				return new Stmt.Function(name, parameters, body);
+				boolean enclosingSawYield = sawYield;
+				sawYield = false;
+				List<Stmt> body = lazyFunctions ? skipBlockStatements() : getBlockStatements();
+				boolean generator = sawYield;
+				sawYield = enclosingSawYield;
+
+				return new Stmt.Function(name, parameters, body, generator);
+		}
+
+		// Collects the tokens up to the matching '}'. A 'yield' makes the function a
+		// generator unless it is inside a nested function or method body, so each
+		// open brace remembers whether it started a function, a class or a block.
+		private List<Stmt> skipBlockStatements() {
+				List<Token> body = new ArrayList<Token>();
+				Deque<TokenType> braces = new ArrayDeque<>();
+				int nestedFunctions = 0;
+				TokenType header = TokenType.LEFT_BRACE;
+
+				while(!reachedEOF()) {
+						Token token = getToken();
+						switch(token.type) {
+								case FUN:
+								case CLASS:
+										header = token.type;
+										break;
+								case YIELD:
+										if(nestedFunctions == 0) sawYield = true;
+										break;
+								case LEFT_BRACE:
+										if(header == TokenType.LEFT_BRACE && braces.peek() == TokenType.CLASS) header = TokenType.FUN;
+										braces.push(header);
+										if(header == TokenType.FUN) nestedFunctions++;
+										header = TokenType.LEFT_BRACE;
+										break;
+								case RIGHT_BRACE:
+										if(braces.isEmpty()) {
+												body.add(new Token(TokenType.EOF, "", null, token.line));
+												return new LazyBody(body, lox);
+										}
+										if(braces.pop() == TokenType.FUN) nestedFunctions--;
+										break;
+								default:
+										break;
+						}
+						body.add(token);
+				}
+				throw error(peek(), "Expected } after block creation");
 		}
 
 		private Stmt breakStatement() {
@@ -183,6 +275,7 @@ public class Parser {
 				Expr left = or();
 
 				if(matchAny(TokenType.EQUAL)) {
+						Token equals = previous();
 						Expr right = assignement();
 
 						if(left instanceof Expr.Variable) {
@@ -193,8 +286,12 @@ public class Parser {
 								Expr.Get get = (Expr.Get) left;
 								return new Expr.Set(get.object, get.name, right);
 						}
+						if(left instanceof Expr.Index) {
+								Expr.Index index = (Expr.Index) left;
+								return new Expr.IndexSet(index.object, index.bracket, index.index, right);
+						}
 
-						throw new RuntimeException("Invalid assignement target");
+						throw error(equals, "Invalid assignement target");
 				}
 				return left;
 		}
@@ -278,6 +375,12 @@ public class Parser {
 								Token name = consumeOrError(TokenType.IDENTIFIER, "Expected property name after .");
 								callee = new Expr.Get(callee, name);
 						}
+						else if(matchAny(TokenType.LEFT_BRACKET)) {
+								Token bracket = previous();
+								Expr index = expression();
+								consumeOrError(TokenType.RIGHT_BRACKET, "Expected a ']' after index");
+								callee = new Expr.Index(callee, bracket, index);
+						}
 						else {
 								break;
 						}
@@ -329,7 +432,34 @@ public class Parser {
 						return new Expr.Variable(previous());
 				}
 
-				System.out.println("Parser.java " + peek());
+				if(matchAny(TokenType.LEFT_BRACKET)) {
+						Token bracket = previous();
+						List<Expr> elements = new ArrayList<Expr>();
+						if(!check(TokenType.RIGHT_BRACKET)) {
+								do {
+										elements.add(expression());
+								} while(matchAny(TokenType.COMMA));
+						}
+						consumeOrError(TokenType.RIGHT_BRACKET, "Expected a ']' after array elements");
+						return new Expr.Array(bracket, elements);
+				}
+
+				if(matchAny(TokenType.LEFT_BRACE)) {
+						Token brace = previous();
+						List<Expr> keys = new ArrayList<Expr>();
+						List<Expr> values = new ArrayList<Expr>();
+						if(!check(TokenType.RIGHT_BRACE)) {
+								do {
+										keys.add(expression());
+										consumeOrError(TokenType.COLON, "Expected a ':' after map key");
+										values.add(expression());
+								} while(matchAny(TokenType.COMMA));
+						}
+						consumeOrError(TokenType.RIGHT_BRACE, "Expected a '}' after map entries");
+						return new Expr.Map(brace, keys, values);
+				}
+
+				lox.out.println("Parser.java " + peek());
 				throw	error(peek(), "Expected expression");
 		}
 
@@ -338,9 +468,9 @@ public class Parser {
 				throw error(peek(), message);
 		}
 
-		private RuntimeException error(Token token, String message) {
-				Lox.error(token.line, message);
-				return new RuntimeException(message);
+		private ParseError error(Token token, String message) {
+				lox.error(token.line, message);
+				return new ParseError();
 		}
 
 		private boolean matchAny(TokenType... types) {
@@ -358,20 +488,28 @@ public class Parser {
 		}
 
 		private Token getToken() {
-				current += reachedEOF() ? 0 : 1;
+				if(!reachedEOF()) {
+						previous = next;
+						next = null;
+				}
 				return previous();
 		}
 		
 		private Token previous() {
-				return tokens.get(current - 1);
+				return previous;
 		}
 		
 		private Token peek() {
-				if(reachedEOF()) return previous();
-				return tokens.get(current);
+				if(reachedEOF() && previous != null) return previous();
+				return lookahead();
+		}
+
+		private Token lookahead() {
+				if(next == null) next = tokens.get();
+				return next;
 		}
 
 		private boolean reachedEOF() {
-				return current >= tokens.size() - 1;
+				return lookahead().type == TokenType.EOF;
 		}
 }
@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+// Sampling profiler for Lox code. While it is attached to an Interpreter
+// (and every fork of it), each Lox function call pushes "name:line" of the
+// function onto a shadow stack of the calling thread. A daemon thread
+// samples all shadow stacks at a fixed rate, and the counts are written as
+// collapsed stacks, "root;outer:1;inner:7 42" per line, the input format of
+// flamegraph.pl and compatible tools.
+//
+// Without a profiler Interpreter.profiler is null and calls only test that.
+public class Profiler {
+		static class ShadowStack {
+				final Thread thread = Thread.currentThread();
+				String[] frames = new String[64];
+				volatile int depth = 0;
+
+				void push(String frame) {
+						if(depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+						frames[depth] = frame;
+						depth++;
+				}
+
+				void pop() {
+						depth--;
+				}
+		}
+
+		private final String root;
+		private final long intervalNanos;
+		private final List<ShadowStack> stacks = new CopyOnWriteArrayList<>();
+		private final ThreadLocal<ShadowStack> stack = ThreadLocal.withInitial(() -> {
+				ShadowStack s = new ShadowStack();
+				stacks.add(s);
+				return s;
+		});
+		private final Map<String, Integer> samples = new TreeMap<>();
+		private Thread main;
+		private Thread sampler;
+		private volatile boolean running = false;
+
+		Profiler(String root, int hertz) {
+				this.root = root;
+				this.intervalNanos = 1000000000L / hertz;
+		}
+
+		public ShadowStack stack() {
+				return stack.get();
+		}
+
+		// Starts sampling. The calling thread is the one running the script, and is
+		// sampled even while it is at top level.
+		public void start() {
+				main = Thread.currentThread();
+				stack();
+				running = true;
+				sampler = new Thread(this::sample, "jlox-profiler");
+				sampler.setDaemon(true);
+				sampler.start();
+		}
+
+		public void stop() {
+				running = false;
+				LockSupport.unpark(sampler);
+				try {
+						sampler.join();
+				}
+				catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+				}
+		}
+
+		public void write(Path file) throws IOException {
+				try(PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+						for(Map.Entry<String, Integer> entry : samples.entrySet()) out.println(entry.getKey() + " " + entry.getValue());
+				}
+		}
+
+		private void sample() {
+				StringBuilder builder = new StringBuilder();
+				while(true) {
+						LockSupport.parkNanos(intervalNanos);
+						if(!running) return;
+						for(ShadowStack s : stacks) {
+								int depth = s.depth;
+								String[] frames = s.frames;
+								if(depth == 0 && s.thread != main) continue;
+
+								builder.setLength(0);
+								builder.append(root);
+								for(int i = 0; i < depth && i < frames.length; ++i) {
+										String frame = frames[i];
+										if(frame != null) builder.append(';').append(frame);
+								}
+								samples.merge(builder.toString(), 1, Integer::sum);
+						}
+				}
+		}
+}
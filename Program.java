@@ -0,0 +1,15 @@
+import java.util.List;
+import java.util.Map;
+
+// A parsed and resolved script. Neither the statements nor the resolved
+// depths change once compiled, so one Program can be run by any number of
+// Lox isolates at the same time.
+public class Program {
+		public final List<Stmt> statements;
+		public final Map<Expr, Integer> locals;
+
+		Program(List<Stmt> statements, Map<Expr, Integer> locals) {
+				this.statements = statements;
+				this.locals = locals;
+		}
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Decides conservatively whether calling a function can have side effects
+// visible outside of the call. A pure function may read anything, but it only
+// assigns its own locals, doesn't print, set fields or elements, declare
+// functions or classes, or yield, and only calls global functions that are
+// pure themselves or natives known not to mutate anything.
+public class PurityAnalyzer implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+		private static final Set<String> PURE_NATIVES = new HashSet<>(Arrays.asList("array", "len", "has", "keys",
+				"vec", "vget", "vadd", "vmul", "vscale", "vdot", "vsum", "vlt", "vgt", "veq"));
+
+		private final Environment globals;
+		private final Map<Expr, Integer> locals;
+		private final Set<Stmt.Function> analyzed = new HashSet<>();
+		// Number of scopes between the statement being analyzed and the scope of
+		// the function's parameters.
+		private int depth = 0;
+
+		PurityAnalyzer(Interpreter interpreter) {
+				this.globals = interpreter.globals;
+				this.locals = interpreter.locals;
+		}
+
+		public boolean isPure(LoxCallable callable) {
+				if(callable instanceof NativeFunction) return PURE_NATIVES.contains(((NativeFunction) callable).name());
+				if(!(callable instanceof LoxFunction)) return false;
+
+				Stmt.Function declaration = ((LoxFunction) callable).declaration();
+				if(declaration.generator) return false;
+				// Already analyzed, or being analyzed further up a recursive call chain.
+				if(!analyzed.add(declaration)) return true;
+
+				int enclosing = depth;
+				depth = 0;
+				boolean pure = all(declaration.body);
+				depth = enclosing;
+				return pure;
+		}
+
+		private boolean all(List<Stmt> statements) {
+				for(Stmt s : statements) {
+						if(!s.accept(this)) return false;
+				}
+				return true;
+		}
+
+		private boolean pure(Expr expr) {
+				return expr == null || expr.accept(this);
+		}
+
+		private boolean pure(Stmt stmt) {
+				return stmt == null || stmt.accept(this);
+		}
+
+		@Override
+		public Boolean visitBinaryExpr(Expr.Binary expr) {
+				return pure(expr.left) && pure(expr.right);
+		}
+
+		@Override
+		public Boolean visitGroupingExpr(Expr.Grouping expr) {
+				return pure(expr.expression);
+		}
+
+		@Override
+		public Boolean visitLiteralExpr(Expr.Literal expr) {
+				return true;
+		}
+
+		@Override
+		public Boolean visitUnaryExpr(Expr.Unary expr) {
+				return pure(expr.right);
+		}
+
+		@Override
+		public Boolean visitVariableExpr(Expr.Variable expr) {
+				return true;
+		}
+
+		@Override
+		public Boolean visitAssignExpr(Expr.Assign expr) {
+				Integer distance = locals.get(expr);
+				return distance != null && distance <= depth && pure(expr.value);
+		}
+
+		@Override
+		public Boolean visitLogicalExpr(Expr.Logical expr) {
+				return pure(expr.left) && pure(expr.right);
+		}
+
+		@Override
+		public Boolean visitCallExpr(Expr.Call expr) {
+				for(Expr argument : expr.arguments) {
+						if(!pure(argument)) return false;
+				}
+				if(!(expr.callee instanceof Expr.Variable) || locals.get(expr.callee) != null) return false;
+
+				Object callee = globals.values.get(((Expr.Variable) expr.callee).name.lexeme);
+				return callee instanceof LoxCallable && isPure((LoxCallable) callee);
+		}
+
+		@Override
+		public Boolean visitGetExpr(Expr.Get expr) {
+				return pure(expr.object);
+		}
+
+		@Override
+		public Boolean visitSetExpr(Expr.Set expr) {
+				return false;
+		}
+
+		@Override
+		public Boolean visitThisExpr(Expr.This expr) {
+				return true;
+		}
+
+		@Override
+		public Boolean visitSuperExpr(Expr.Super expr) {
+				return true;
+		}
+
+		@Override
+		public Boolean visitArrayExpr(Expr.Array expr) {
+				for(Expr element : expr.elements) {
+						if(!pure(element)) return false;
+				}
+				return true;
+		}
+
+		@Override
+		public Boolean visitIndexExpr(Expr.Index expr) {
+				return pure(expr.object) && pure(expr.index);
+		}
+
+		@Override
+		public Boolean visitIndexSetExpr(Expr.IndexSet expr) {
+				return false;
+		}
+
+		@Override
+		public Boolean visitMapExpr(Expr.Map expr) {
+				for(int i = 0; i < expr.keys.size(); ++i) {
+						if(!pure(expr.keys.get(i)) || !pure(expr.values.get(i))) return false;
+				}
+				return true;
+		}
+
+		@Override
+		public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+				return pure(stmt.expression);
+		}
+
+		@Override
+		public Boolean visitIfStmt(Stmt.If stmt) {
+				return pure(stmt.condition) && pure(stmt.thenBranch) && pure(stmt.elseBranch);
+		}
+
+		@Override
+		public Boolean visitWhileStmt(Stmt.While stmt) {
+				return pure(stmt.condition) && pure(stmt.body);
+		}
+
+		@Override
+		public Boolean visitPrintStmt(Stmt.Print stmt) {
+				return false;
+		}
+
+		@Override
+		public Boolean visitVarStmt(Stmt.Var stmt) {
+				return pure(stmt.initializer);
+		}
+
+		@Override
+		public Boolean visitBlockStmt(Stmt.Block stmt) {
+				depth++;
+				boolean pure = all(stmt.statements);
+				depth--;
+				return pure;
+		}
+
+		@Override
+		public Boolean visitBreakStmt(Stmt.Break stmt) {
+				return pure(stmt.condition);
+		}
+
+		@Override
+		public Boolean visitFunctionStmt(Stmt.Function stmt) {
+				return false;
+		}
+
+		@Override
+		public Boolean visitReturnStmt(Stmt.Return stmt) {
+				return pure(stmt.value);
+		}
+
+		@Override
+		public Boolean visitClassStmt(Stmt.Class stmt) {
+				return false;
+		}
+
+		@Override
+		public Boolean visitYieldStmt(Stmt.Yield stmt) {
+				return false;
+		}
+}
@@ -1,3 +1,4 @@
+import java.io.PrintStream;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Stack;
@@ -12,13 +13,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 				NONE, CLASS, SUBCLASS
 		}
 
-		private Interpreter interpreter;
+		private Map<Expr, Integer> locals;
+		private PrintStream out;
 		private Stack<Map<String, Boolean>> scopes = new Stack<>();
 		private FunctionType currentFunctionType = FunctionType.NONE;
 		private ClassType currentClassType = ClassType.NONE;
 
 		public Resolver(Interpreter interpreter) {
-				this.interpreter = interpreter;
+				this(interpreter.locals, interpreter.out);
+		}
+
+		// locals has to be safe to add to while other threads read it if the
+		// statements have lazily parsed function bodies.
+		public Resolver(Map<Expr, Integer> locals, PrintStream out) {
+				this.locals = locals;
+				this.out = out;
 		}
 		
 		@Override
@@ -40,7 +49,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		@Override
 		public Void visitVariableExpr(Expr.Variable expr) {
 				if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-						System.out.println("Problem initializing variable");
+						out.println("Problem initializing variable");
 				}
 				resolveLocal(expr, expr.name);
 				return null;
@@ -167,6 +176,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 				return null;
 		}
 
+		@Override
+		public Void visitYieldStmt(Stmt.Yield stmt) {
+				if(currentFunctionType == FunctionType.NONE) 
+						throw new RuntimeException("can't yield from top-level code");
+
+				if(currentFunctionType == FunctionType.INITIALIZER) 
+						throw new RuntimeException("can't yield from an initializer");
+
+				if(stmt.value != null) stmt.value.accept(this);
+				return null;
+		}
+
 		@Override
 		public Void visitWhileStmt(Stmt.While stmt) {
 				stmt.condition.accept(this);
@@ -181,6 +202,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 				return null;
 		}
 
+		@Override
+		public Void visitArrayExpr(Expr.Array expr) {
+				for(Expr element : expr.elements) element.accept(this);
+				return null;
+		}
+
+		@Override
+		public Void visitMapExpr(Expr.Map expr) {
+				for(int i = 0; i < expr.keys.size(); ++i) {
+						expr.keys.get(i).accept(this);
+						expr.values.get(i).accept(this);
+				}
+				return null;
+		}
+
+		@Override
+		public Void visitIndexExpr(Expr.Index expr) {
+				expr.object.accept(this);
+				expr.index.accept(this);
+				return null;
+		}
+
+		@Override
+		public Void visitIndexSetExpr(Expr.IndexSet expr) {
+				expr.object.accept(this);
+				expr.index.accept(this);
+				expr.value.accept(this);
+				return null;
+		}
+
 		@Override
 		public Void visitCallExpr(Expr.Call expr) {
 				expr.callee.accept(this);
@@ -225,15 +276,32 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 						declare(param);
 						define(param);
 		}
-				for(Stmt s : function.body) s.accept(this);
+				if(function.body instanceof LazyBody && !((LazyBody) function.body).isParsed()) {
+						((LazyBody) function.body).defer(snapshot());
+				}
+				else {
+						resolve(function.body);
+				}
 				currentFunctionType = enclosingFunctionType;
 				scopes.pop();
 		}
 
+		public void resolve(List<Stmt> statements) {
+				for(Stmt s : statements) s.accept(this);
+		}
+
+		private Resolver snapshot() {
+				Resolver resolver = new Resolver(locals, out);
+				for(Map<String, Boolean> scope : scopes) resolver.scopes.push(new HashMap<String, Boolean>(scope));
+				resolver.currentFunctionType = currentFunctionType;
+				resolver.currentClassType = currentClassType;
+				return resolver;
+		}
+
 		private void resolveLocal(Expr expr, Token name) {
 				for(int i = scopes.size() - 1; i >= 0; --i) {
 						if(!scopes.get(i).containsKey(name.lexeme)) continue;
-						interpreter.resolve(expr, scopes.size() - i - 1);
+						locals.put(expr, scopes.size() - i - 1);
 						return;
 				}	
 		}
@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Time-slices many concurrently running scripts over a fixed number of
+// workers. Each script keeps its own thread, since its interpreter state is
+// on that thread's stack, but only runs while it holds one of the permits of
+// a fair semaphore. Every loop back-edge and Lox function call ticks the
+// script's Slot, and after quantum ticks a script that others are queued
+// behind releases its permit and queues up again at the back. Scripts waiting
+// on the event loop, a channel, standard input or their spawned tasks give
+// their permit up until they resume.
+//
+// Tasks spawned by a script and parallel natives run on other threads, which
+// share the script's slot but never yield it.
+//
+// The scheduler keeps, per script, the time it held a permit and the time it
+// spent queued, and over all scripts a histogram of queue latencies.
+public class Scheduler {
+		static final int DEFAULT_QUANTUM = 10000;
+
+		public interface Script {
+				int run() throws IOException;
+		}
+
+		public class Slot {
+				final String name;
+				final long admitted = System.nanoTime();
+				private Thread owner;
+				private int remaining = quantum;
+				private boolean holding = false;
+				private long acquired;
+				private long runNanos = 0;
+				private long queueNanos = 0;
+				private long maxQueueNanos = 0;
+				private long slices = 0;
+
+				Slot(String name) {
+						this.name = name;
+				}
+
+				public void tick() {
+						if(--remaining <= 0) rotate();
+				}
+
+				// Gives the permit up while the script blocks.
+				public void pause() {
+						if(holding && Thread.currentThread() == owner) release();
+				}
+
+				public void resume() {
+						if(!holding && Thread.currentThread() == owner) acquire();
+				}
+
+				public long runNanos() {
+						return runNanos;
+				}
+
+				public long queueNanos() {
+						return queueNanos;
+				}
+
+				public long maxQueueNanos() {
+						return maxQueueNanos;
+				}
+
+				public long slices() {
+						return slices;
+				}
+
+				// Fraction of its time since admission the script spent on a worker.
+				public double cpuShare() {
+						long run = runNanos + (holding ? System.nanoTime() - acquired : 0);
+						return run / (double) Math.max(1, System.nanoTime() - admitted);
+				}
+
+				private void rotate() {
+						remaining = quantum;
+						if(!holding || Thread.currentThread() != owner || !workers.hasQueuedThreads()) return;
+						release();
+						acquire();
+				}
+
+				private void acquire() {
+						long start = System.nanoTime();
+						workers.acquireUninterruptibly();
+						acquired = System.nanoTime();
+						holding = true;
+
+						long waited = acquired - start;
+						queueNanos += waited;
+						maxQueueNanos = Math.max(maxQueueNanos, waited);
+						waits.incrementAndGet(64 - Long.numberOfLeadingZeros(waited));
+						maxWait.accumulateAndGet(waited, Math::max);
+				}
+
+				private void release() {
+						runNanos += System.nanoTime() - acquired;
+						slices++;
+						holding = false;
+						workers.release();
+				}
+		}
+
+		private final int workerCount;
+		private final int quantum;
+		private final Semaphore workers;
+		private final Set<Slot> running = ConcurrentHashMap.newKeySet();
+		private final AtomicLongArray waits = new AtomicLongArray(65);
+		private final AtomicLong maxWait = new AtomicLong();
+		private final LongAdder finished = new LongAdder();
+		private final LongAdder finishedRunNanos = new LongAdder();
+
+		Scheduler(int workerCount, int quantum) {
+				this.workerCount = workerCount;
+				this.quantum = quantum;
+				this.workers = new Semaphore(workerCount, true);
+		}
+
+		Scheduler() {
+				this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUANTUM);
+		}
+
+		public Slot admit(String name) {
+				return new Slot(name);
+		}
+
+		// Runs script on the calling thread, under slot, as lox's scripts.
+		public int run(Slot slot, Lox lox, Script script) throws IOException {
+				slot.owner = Thread.currentThread();
+				lox.schedule(slot);
+				running.add(slot);
+				slot.acquire();
+				try {
+						return script.run();
+				}
+				finally {
+						slot.pause();
+						lox.schedule(null);
+						running.remove(slot);
+						finished.increment();
+						finishedRunNanos.add(slot.runNanos);
+				}
+		}
+
+		// Upper bound of the queue latency below which percent of all waits fell.
+		public long queuePercentile(int percent) {
+				long total = 0;
+				for(int i = 0; i < waits.length(); ++i) total += waits.get(i);
+				long rank = (long) Math.ceil(percent / 100.0 * total);
+				long seen = 0;
+				for(int i = 0; i < waits.length(); ++i) {
+						seen += waits.get(i);
+						if(seen >= Math.max(1, rank)) return i == 0 ? 0 : Math.min(1L << Math.min(62, i), maxWait.get());
+				}
+				return 0;
+		}
+
+		public void report(PrintStream out) {
+				List<Slot> active = new ArrayList<>(running);
+				out.printf("%d workers, quantum %d, %d scripts finished (%.3f ms on workers), %d running%n",
+						workerCount, quantum, finished.sum(), finishedRunNanos.sum() / 1e6, active.size());
+				out.printf("queue latency  p50 %.3f ms  p99 %.3f ms  max %.3f ms%n",
+						queuePercentile(50) / 1e6, queuePercentile(99) / 1e6, maxWait.get() / 1e6);
+				if(active.isEmpty()) return;
+				out.println("    run ms    cpu   queued ms  script");
+				for(Slot slot : active) {
+						out.printf("%10.3f %5.1f%% %11.3f  %s%n", slot.runNanos / 1e6, slot.cpuShare() * 100, slot.queueNanos / 1e6, slot.name);
+				}
+		}
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+
+// Directory of .loxc files, one per distinct source text, named after the
+// SHA-256 of the source.
+public class ScriptCache {
+		private final Path directory;
+		private final PrintStream err;
+
+		// Failures to write entries are reported to err, the isolate's.
+		ScriptCache(Path directory, PrintStream err) {
+				this.directory = directory;
+				this.err = err;
+		}
+
+		public static Path defaultDirectory() {
+				return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+		}
+
+		public static byte[] hash(byte[] source) {
+				try {
+						return MessageDigest.getInstance("SHA-256").digest(source);
+				}
+				catch(NoSuchAlgorithmException e) {
+						throw new IllegalStateException(e);
+				}
+		}
+
+		public List<Stmt> load(byte[] hash, Interpreter interpreter) {
+				Path entry = entry(hash);
+				if(!Files.isRegularFile(entry)) return null;
+				try {
+						return AstReader.read(Files.readAllBytes(entry), hash, interpreter);
+				}
+				catch(IOException | RuntimeException e) {
+						return null;
+				}
+		}
+
+		public void store(byte[] hash, List<Stmt> statements, Map<Expr, Integer> locals) {
+				Path entry = entry(hash);
+				try {
+						Files.createDirectories(directory);
+						Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+						try {
+								Files.write(temporary, AstWriter.write(hash, statements, locals));
+								Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+						}
+						finally {
+								Files.deleteIfExists(temporary);
+						}
+				}
+				catch(IOException e) {
+						err.println("Unable to write cache entry " + entry + ": " + e.getMessage());
+				}
+		}
+
+		private Path entry(byte[] hash) {
+				StringBuilder name = new StringBuilder();
+				for(byte b : hash) name.append(String.format("%02x", b));
+				return directory.resolve(name.append(".loxc").toString());
+		}
+}
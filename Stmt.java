@@ -14,6 +14,7 @@ abstract class Stmt {
 				T visitFunctionStmt(Function stmt);
 				T visitReturnStmt(Return stmt);
 				T visitClassStmt(Class stmt);
+				T visitYieldStmt(Yield stmt);
 		}
 
 		public static class Expression extends Stmt{
@@ -119,11 +120,13 @@ abstract class Stmt {
 				Token name;
 				List<Token> arguments;
 				List<Stmt> body;
+				boolean generator;
 
-				Function(Token name, List<Token> arguments, List<Stmt> body) {
+				Function(Token name, List<Token> arguments, List<Stmt> body, boolean generator) {
 						this.name = name;
 						this.arguments = arguments;
 						this.body = body;
+						this.generator = generator;
 				}
 
 				@Override
@@ -164,4 +167,19 @@ abstract class Stmt {
 				}
 		}
 
+		public static class Yield extends Stmt{
+				Token keyword;
+				Expr value;
+
+				Yield(Token keyword, Expr value) {
+						this.keyword = keyword;
+						this.value = value;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						return visitor.visitYieldStmt(this);
+				}
+		}
+
 }
@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// spawn(fn) runs fn on a separate (virtual, when available) thread with its
+// own Interpreter and returns a channel that receives fn's result. chan(),
+// send(ch, value) and recv(ch) let tasks exchange values.
+//
+// Tasks share the globals and the closures they capture. The globals are
+// switched to a synchronized map before the first task starts; any other
+// state shared between tasks should be passed through channels. The jlox
+// command waits for the tasks its script spawned before it exits, so a task
+// that never returns keeps it running; --max-time bounds that wait.
+public class Tasks {
+		private static final ExecutorService executor = LoxExecutor.newVirtualThreadExecutor(
+				() -> Executors.newCachedThreadPool(runnable -> {
+						Thread thread = new Thread(runnable);
+						thread.setDaemon(true);
+						return thread;
+				}));
+
+		static void defineNatives(Environment globals) {
+				globals.define("spawn", new NativeFunction("spawn", 1, (interpreter, arguments) -> spawn(interpreter, arguments.get(0))));
+				globals.define("chan", new NativeFunction("chan", 0, (interpreter, arguments) -> new LoxChannel()));
+				globals.define("send", new NativeFunction("send", 2, (interpreter, arguments) -> {
+						channel(arguments.get(0)).send(arguments.get(1));
+						return null;
+				}));
+				globals.define("recv", new NativeFunction("recv", 1, (interpreter, arguments) -> {
+						LoxChannel channel = channel(arguments.get(0));
+						if(interpreter.slot == null) return channel.recv();
+						interpreter.slot.pause();
+						try {
+								return channel.recv();
+						}
+						finally {
+								interpreter.slot.resume();
+						}
+				}));
+		}
+
+		private static LoxChannel spawn(Interpreter interpreter, Object callee) {
+				if(!(callee instanceof LoxCallable) || ((LoxCallable) callee).arity() != 0)
+						throw new RuntimeException("spawn expects a function without parameters");
+
+				LoxCallable function = (LoxCallable) callee;
+				LoxChannel result = new LoxChannel();
+				Interpreter task = interpreter.fork();
+				interpreter.globals.share();
+
+				task.lox.taskStarted();
+				executor.execute(() -> {
+						try {
+								result.send(function.call(task, new ArrayList<Object>()));
+						}
+						catch(RuntimeException e) {
+								task.lox.runtimeError(e);
+								result.send(null);
+						}
+						finally {
+								task.lox.taskFinished();
+						}
+				});
+				return result;
+		}
+
+		private static LoxChannel channel(Object value) {
+				if(value instanceof LoxChannel) return (LoxChannel) value;
+				throw new RuntimeException("Expected a channel");
+		}
+}
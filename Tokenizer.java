@@ -1,12 +1,19 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.*;
 
 public class Tokenizer {
-		private final String source;
-		private final List<Token> tokens;
+		private static final int BUFFER_SIZE = 8192;
+
+		private final Reader reader;
+		private final Lox lox;
 		private static final Map<String, TokenType> keywords;
 		static {
 				keywords = new HashMap<>();
@@ -28,22 +35,49 @@ public class Tokenizer {
 				keywords.put("while", TokenType.WHILE);
 				keywords.put("max", TokenType.MAX);
 				keywords.put("break", TokenType.BREAK);
+				keywords.put("yield", TokenType.YIELD);
 		}
+		// The source is read through a sliding window: only the characters of the
+		// token being scanned are kept, so memory does not grow with the input.
+		private char[] buffer = new char[BUFFER_SIZE];
+		private int limit = 0;
+		private boolean exhausted = false;
 		private int start = 0;
 		private int current = 0;
 		private int line = 1;
+		private Token scanned;
+
+		Tokenizer(String source, Lox lox) {
+				this(new StringReader(source), lox);
+		}
 
-		Tokenizer(String source) {
-				this.source = source;
-				this.tokens = new ArrayList<Token>();
+		Tokenizer(Reader reader, Lox lox) {
+				this(reader, 1, lox);
+		}
+
+		Tokenizer(Reader reader, int line, Lox lox) {
+				this.reader = reader;
+				this.line = line;
+				this.lox = lox;
 		}
 
 		List<Token> scanTokens() {
-				while(!reachedEOF()) { scanToken(); }
-				tokens.add(new Token(TokenType.EOF, "", null, line));
+				List<Token> tokens = new ArrayList<Token>();
+				Token token;
+				do {
+						token = nextToken();
+						tokens.add(token);
+				} while(token.type != TokenType.EOF);
 				return tokens;
 		}
 
+		Token nextToken() {
+				scanned = null;
+				while(scanned == null && !reachedEOF()) { scanToken(); }
+				if(scanned == null) scanned = new Token(TokenType.EOF, "", null, line);
+				return scanned;
+		}
+
 		private void scanToken() {
 				start = current;
 				char c = getChar();
@@ -60,6 +94,12 @@ public class Tokenizer {
 						case '}':
 								addToken(TokenType.RIGHT_BRACE, null);
 								break;
+						case '[':
+								addToken(TokenType.LEFT_BRACKET, null);
+								break;
+						case ']':
+								addToken(TokenType.RIGHT_BRACKET, null);
+								break;
 						case ',':
 								addToken(TokenType.COMMA, null);
 								break;
@@ -116,7 +156,7 @@ public class Tokenizer {
 						default:
 								if(isDigit(c)) { number(); }
 								else if(isAlpha(c)) { identifier(); }
-								else { Lox.error(line, "Unexpected character"); }
+								else { lox.error(line, "Unexpected character"); }
 								break;
 				}
 		}
@@ -124,14 +164,15 @@ public class Tokenizer {
 		private void multilineComment() {
 				while(!reachedEOF() && !(peek() == '*' && peekNext() == '/')) {
 						if(getChar() == '\n') line++;
+						start = current;
 				}
-				if(reachedEOF()){ Lox.error(line, "Missing closing comment symbol */"); }
+				if(reachedEOF()){ lox.error(line, "Missing closing comment symbol */"); }
 				else { getChar(); getChar(); }
 		}
 
 		private void identifier() {
 				while(isAlphaNumeric(peek())) getChar();
-				String text = source.substring(start, current);
+				String text = lexeme(start, current);
 				TokenType type = keywords.get(text);
 				addToken(type == null ? TokenType.IDENTIFIER : type, null);
 		}
@@ -150,7 +191,7 @@ public class Tokenizer {
 				while(isDigit(peek())) getChar();
 				if(peek() == '.' && isDigit(peekNext())) getChar();
 				while(isDigit(peek())) getChar();
-				String literal_value = source.substring(start, current);
+				String literal_value = lexeme(start, current);
 				addToken(TokenType.NUMBER, Double.parseDouble(literal_value));
 		}
 
@@ -164,44 +205,82 @@ public class Tokenizer {
 						getChar();
 				}
 				if(reachedEOF()) {
-						Lox.error(line, "Unterminated string");
+						lox.error(line, "Unterminated string");
 						return;
 				}
 				getChar();
-				String literal_value = source.substring(start + 1, current - 1);
+				String literal_value = lexeme(start + 1, current - 1);
 				addToken(TokenType.STRING, literal_value);
 		}
 
 		private void comment() {
-				while(peek() != '\n' && !reachedEOF()) getChar();
+				while(peek() != '\n' && !reachedEOF()) {
+						getChar();
+						start = current;
+				}
 		}
 
 		private char getChar() {
-				return source.charAt(current++);
+				ensure(1);
+				return buffer[current++];
 		}
 
 		private boolean reachedEOF() {
-				return current >= source.length();
+				return !ensure(1);
 		}
 
 		private char peek() {
-				if(reachedEOF()) return '\0';
-				return source.charAt(current);
+				if(!ensure(1)) return '\0';
+				return buffer[current];
 		}
 
 		private char peekNext() {
-				if(current + 1 >= source.length()) return '\0';
-				return source.charAt(current + 1);
+				if(!ensure(2)) return '\0';
+				return buffer[current + 1];
 		}
 
 		private boolean match(char c) {
-				if(reachedEOF() || source.charAt(current) != c) return false;
+				if(!ensure(1) || buffer[current] != c) return false;
 				current++;
 				return true;
 		}
 
+		private String lexeme(int from, int to) {
+				return new String(buffer, from, to - from);
+		}
+
 		private void addToken(TokenType type, Object literal) {
-				String text = source.substring(start, current);
-				tokens.add(new Token(type, text, literal, line));
+				scanned = new Token(type, lexeme(start, current), literal, line);
+		}
+
+		private boolean ensure(int count) {
+				while(limit - current < count) {
+						if(!fill()) return false;
+				}
+				return true;
+		}
+
+		private boolean fill() {
+				if(exhausted) return false;
+				if(start > 0) {
+						System.arraycopy(buffer, start, buffer, 0, limit - start);
+						limit -= start;
+						current -= start;
+						start = 0;
+				}
+				if(limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length << 1);
+
+				try {
+						int read = reader.read(buffer, limit, buffer.length - limit);
+						if(read < 0) {
+								exhausted = true;
+								return false;
+						}
+						limit += read;
+						return true;
+				}
+				catch(IOException e) {
+						throw new UncheckedIOException(e);
+				}
 		}
 }
@@ -0,0 +1,674 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Profile-guided specialization for --pgo. The first run of a script records,
+// per site, the operand types of every Binary, the receiver classes of every
+// Get, the callees of every Call and the trip counts of every While, and
+// saves them next to the script as <script>.pgo with the hash of its source.
+// Later runs of the same source read the profile and, before executing
+// anything, replace the sites that were hot with specialized nodes:
+//
+//   Binary  only ever on numbers (or on strings, for +): computes without
+//           the generic type checks
+//   Get     one receiver class: caches the method found on that class
+//   Call    one Lox function: calls it without the generic checks, and if
+//           its body is a single return statement, evaluates the returned
+//           expression in place, saving the unwinding of a Return
+//   While   many trips per entry, and no function or class declared in its
+//           body: reuses the body's block scopes across iterations
+//
+// Every specialized node checks its assumption and otherwise does what the
+// original node would, so a stale profile only costs speed. Sites are
+// numbered in the order of a walk of the resolved tree, which is the same
+// for the same source. The nodes only act for the Interpreter, and generator
+// bodies are left alone.
+public class TypeProfile {
+		static final int VERSION = 1;
+		static final int HOT = 16;
+		static final int HOT_TRIPS = 8;
+		static final int MAX_NAMES = 4;
+
+		static final int NUMBER = 1, STRING = 2, BOOLEAN = 4, NIL = 8, INSTANCE = 16, OTHER = 32;
+
+		private static class Site {
+				final char kind;
+				long count = 0;
+				int left = 0, right = 0;
+				final Set<String> names = new LinkedHashSet<>();
+				long entries = 0, trips = 0;
+
+				Site(char kind) {
+						this.kind = kind;
+				}
+
+				synchronized void name(String name) {
+						if(names.size() < MAX_NAMES || names.contains(name)) names.add(name);
+						else names.add("*");
+				}
+
+				boolean monomorphic() {
+						return names.size() == 1 && !names.contains("*") && !names.contains("?");
+				}
+		}
+
+		private static final int LEFT = 0, RIGHT = 1, RECEIVER = 2, CALLEE = 3;
+
+		// Records the value of the wrapped expression for its site.
+		private static class Tap extends Expr {
+				final Expr expr;
+				final Site site;
+				final int role;
+
+				Tap(Expr expr, Site site, int role) {
+						this.expr = expr;
+						this.site = site;
+						this.role = role;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						T value = expr.accept(visitor);
+						if(visitor instanceof Interpreter) observe(value);
+						return value;
+				}
+
+				private void observe(Object value) {
+						switch(role) {
+								case LEFT:
+										site.count++;
+										site.left |= type(value);
+										break;
+								case RIGHT:
+										site.right |= type(value);
+										break;
+								case RECEIVER:
+										site.count++;
+										site.name(value instanceof LoxInstance ? ((LoxInstance) value).klass().name : "?");
+										break;
+								case CALLEE:
+										site.count++;
+										site.name(target(value));
+										break;
+						}
+				}
+		}
+
+		// Counts the entries of a loop, whose body counts its trips.
+		private static class LoopEntry extends Stmt {
+				final Stmt.While loop;
+				final Site site;
+
+				LoopEntry(Stmt.While loop, Site site) {
+						this.loop = loop;
+						this.site = site;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(visitor instanceof Interpreter) site.entries++;
+						return loop.accept(visitor);
+				}
+		}
+
+		private static class LoopTrip extends Stmt {
+				final Stmt body;
+				final Site site;
+
+				LoopTrip(Stmt body, Site site) {
+						this.body = body;
+						this.site = site;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(visitor instanceof Interpreter) site.trips++;
+						return body.accept(visitor);
+				}
+		}
+
+		private static class NumberBinary extends Expr {
+				final Expr.Binary binary;
+
+				NumberBinary(Expr.Binary binary) {
+						this.binary = binary;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(!(visitor instanceof Interpreter)) return binary.accept(visitor);
+						Interpreter interpreter = (Interpreter) visitor;
+						Object left = binary.left.accept(interpreter);
+						Object right = binary.right.accept(interpreter);
+						if(!(left instanceof Double) || !(right instanceof Double)) return cast(interpreter.binary(binary.operator, left, right));
+
+						double a = (double) left, b = (double) right;
+						switch(binary.operator.type) {
+								case PLUS: return cast(a + b);
+								case MINUS: return cast(a - b);
+								case STAR: return cast(a * b);
+								case SLASH: return cast(a / b);
+								case GREATER: return cast(a > b);
+								case GREATER_EQUAL: return cast(a >= b);
+								// Same as Interpreter.binary.
+								case LESS:
+								case LESS_EQUAL: return cast(a <= b);
+								default: return cast(interpreter.binary(binary.operator, left, right));
+						}
+				}
+		}
+
+		private static class StringConcat extends Expr {
+				final Expr.Binary binary;
+
+				StringConcat(Expr.Binary binary) {
+						this.binary = binary;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(!(visitor instanceof Interpreter)) return binary.accept(visitor);
+						Interpreter interpreter = (Interpreter) visitor;
+						Object left = binary.left.accept(interpreter);
+						Object right = binary.right.accept(interpreter);
+						if(!(left instanceof String) || !(right instanceof String)) return cast(interpreter.binary(binary.operator, left, right));
+
+						String s = (String) left + (String) right;
+						if(interpreter.budget != null) interpreter.budget.allocateString(s);
+						return cast(s);
+				}
+		}
+
+		private static class CachedGet extends Expr {
+				private static class Entry {
+						final LoxClass klass;
+						final LoxFunction method;
+
+						Entry(LoxClass klass, LoxFunction method) {
+								this.klass = klass;
+								this.method = method;
+						}
+				}
+
+				final Expr.Get get;
+				final String className;
+				private Entry cached;
+
+				CachedGet(Expr.Get get, String className) {
+						this.get = get;
+						this.className = className;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(!(visitor instanceof Interpreter)) return get.accept(visitor);
+						Interpreter interpreter = (Interpreter) visitor;
+						Object object = get.object.accept(interpreter);
+						if(!(object instanceof LoxInstance)) return cast(interpreter.property(object, get.name));
+
+						LoxInstance instance = (LoxInstance) object;
+						String name = get.name.lexeme;
+						if(instance.hasField(name)) return cast(instance.get(get.name));
+
+						Entry entry = cached;
+						if(entry == null || entry.klass != instance.klass()) {
+								LoxClass klass = instance.klass();
+								LoxFunction method = klass.getMethod(name);
+								if(method == null || !klass.name.equals(className)) return cast(instance.get(get.name));
+								cached = entry = new Entry(klass, method);
+						}
+						return cast(entry.method.bind(instance));
+				}
+		}
+
+		private static class DirectCall extends Expr {
+				final Expr.Call call;
+				Stmt.Function target;
+
+				DirectCall(Expr.Call call) {
+						this.call = call;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(!(visitor instanceof Interpreter)) return call.accept(visitor);
+						Interpreter interpreter = (Interpreter) visitor;
+						Object callee = call.callee.accept(interpreter);
+						List<Object> arguments = new ArrayList<>(call.arguments.size());
+						for(Expr argument : call.arguments) arguments.add(argument.accept(interpreter));
+
+						// The arity was checked against the target's when it was linked.
+						if(target != null && callee instanceof LoxFunction && ((LoxFunction) callee).declaration() == target) {
+								return cast(((LoxFunction) callee).call(interpreter, arguments));
+						}
+						return cast(interpreter.call(callee, arguments, call.paren));
+				}
+		}
+
+		// The body of a function that only returns an expression, which
+		// LoxFunction.call evaluates directly. Iterating it gives the original
+		// statement, so everything else runs it as before.
+		public static class InlinedBody extends AbstractList<Stmt> {
+				private final Stmt.Return statement;
+
+				InlinedBody(Stmt.Return statement) {
+						this.statement = statement;
+				}
+
+				public Expr value() {
+						return statement.value;
+				}
+
+				@Override
+				public Stmt get(int index) {
+						if(index != 0) throw new IndexOutOfBoundsException(index);
+						return statement;
+				}
+
+				@Override
+				public int size() {
+						return 1;
+				}
+		}
+
+		// A loop whose body block, and the blocks directly in it, get their
+		// scopes once per execution of the loop instead of once per iteration.
+		// Safe because nothing in the body can capture a scope, and every
+		// variable is defined again before it is used in the next iteration.
+		private static class HotLoop extends Stmt {
+				final Stmt.While loop;
+
+				HotLoop(Stmt.While loop) {
+						this.loop = loop;
+				}
+
+				@Override
+				<T> T accept(Visitor<T> visitor) {
+						if(!(visitor instanceof Interpreter)) return loop.accept(visitor);
+						Interpreter interpreter = (Interpreter) visitor;
+						Stmt.Block body = (Stmt.Block) loop.body;
+						Environment scope = null;
+						Map<Stmt.Block, Environment> inner = null;
+						try {
+								while(interpreter.isTruthy(loop.condition.accept(interpreter))) {
+										if(scope == null) {
+												if(interpreter.budget != null) interpreter.budget.allocate(Budget.ENVIRONMENT_BYTES);
+												scope = new Environment(interpreter.environment);
+										}
+										Environment previous = interpreter.environment;
+										try {
+												interpreter.environment = scope;
+												for(Stmt s : body.statements) {
+														if(!(s instanceof Stmt.Block)) {
+																s.accept(interpreter);
+																continue;
+														}
+														if(inner == null) inner = new HashMap<>();
+														Environment blockScope = inner.get(s);
+														if(blockScope == null) {
+																if(interpreter.budget != null) interpreter.budget.allocate(Budget.ENVIRONMENT_BYTES);
+																inner.put((Stmt.Block) s, blockScope = new Environment(scope));
+														}
+														interpreter.executeBlock(((Stmt.Block) s).statements, blockScope);
+												}
+										}
+										finally {
+												interpreter.environment = previous;
+										}
+										if(interpreter.budget != null) interpreter.budget.step();
+										if(interpreter.slot != null) interpreter.slot.tick();
+								}
+						}
+						catch(Interpreter.BreakError e) {
+								interpreter.environment = interpreter.environment.enclosing;
+						}
+						return null;
+				}
+		}
+
+		private final byte[] hash;
+		private final List<Site> sites = new ArrayList<>();
+		private final boolean recording;
+
+		private TypeProfile(byte[] hash, boolean recording) {
+				this.hash = hash;
+				this.recording = recording;
+		}
+
+		// A profile to record for the source with this hash.
+		static TypeProfile recorder(byte[] hash) {
+				return new TypeProfile(hash, true);
+		}
+
+		public boolean isRecording() {
+				return recording;
+		}
+
+		// Rewrites a resolved program, recording into this profile or specialized
+		// by it.
+		public List<Stmt> apply(List<Stmt> statements) {
+				Walk walk = new Walk();
+				List<Stmt> rewritten = walk.statements(statements);
+				if(!recording) walk.link();
+				return rewritten;
+		}
+
+		// The profile saved in file for the source with this hash, or null if
+		// there is none or it was recorded for another source.
+		static TypeProfile load(Path file, byte[] hash) {
+				if(!Files.isRegularFile(file)) return null;
+				try {
+						List<String> lines = Files.readAllLines(file);
+						if(lines.isEmpty() || !lines.get(0).equals("jlox-profile " + VERSION + " " + hex(hash))) return null;
+
+						TypeProfile profile = new TypeProfile(hash, false);
+						for(String line : lines.subList(1, lines.size())) {
+								String[] parts = line.split(" ");
+								int id = Integer.parseInt(parts[1]);
+								Site site = new Site(parts[0].charAt(0));
+								while(profile.sites.size() < id) profile.sites.add(null);
+								profile.sites.add(site);
+								if(site.kind == 'l') {
+										site.entries = Long.parseLong(parts[2]);
+										site.trips = Long.parseLong(parts[3]);
+										continue;
+								}
+								site.count = Long.parseLong(parts[2]);
+								if(site.kind == 'b') {
+										site.left = Integer.parseInt(parts[3]);
+										site.right = Integer.parseInt(parts[4]);
+								}
+								else {
+										for(int i = 3; i < parts.length; ++i) site.names.add(parts[i]);
+								}
+						}
+						return profile;
+				}
+				catch(IOException | RuntimeException e) {
+						return null;
+				}
+		}
+
+		// One line per site that ran: "binary id count left right" with type
+		// masks, "get id count class..." and "call id count target...", at most
+		// MAX_NAMES of them or "*", and "loop id entries trips".
+		public void save(Path file) throws IOException {
+				List<String> lines = new ArrayList<>();
+				lines.add("jlox-profile " + VERSION + " " + hex(hash));
+				for(int id = 0; id < sites.size(); ++id) {
+						Site site = sites.get(id);
+						if(site.kind == 'l') {
+								if(site.entries > 0) lines.add("loop " + id + " " + site.entries + " " + site.trips);
+								continue;
+						}
+						if(site.count == 0) continue;
+						if(site.kind == 'b') lines.add("binary " + id + " " + site.count + " " + site.left + " " + site.right);
+						else lines.add((site.kind == 'g' ? "get " : "call ") + id + " " + site.count + " " + String.join(" ", site.names));
+				}
+
+				Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+				try {
+						Files.write(temporary, lines);
+						Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				finally {
+						Files.deleteIfExists(temporary);
+				}
+		}
+
+		// Numbers the sites in the order they are reached and replaces them
+		// with recording or specialized nodes.
+		private class Walk {
+				int next = 0;
+				final Map<String, Stmt.Function> functions = new HashMap<>();
+				final Map<DirectCall, String> calls = new HashMap<>();
+
+				// Points the direct calls at their targets, which may be declared
+				// after the call, and inlines the targets that only return.
+				void link() {
+						for(Map.Entry<DirectCall, String> entry : calls.entrySet()) {
+								DirectCall call = entry.getKey();
+								Stmt.Function target = functions.get(entry.getValue());
+								if(target == null || target.generator || target.arguments.size() != call.call.arguments.size()) continue;
+								call.target = target;
+								if(target.body.size() == 1 && target.body.get(0) instanceof Stmt.Return && ((Stmt.Return) target.body.get(0)).value != null) {
+										target.body = new InlinedBody((Stmt.Return) target.body.get(0));
+								}
+						}
+				}
+
+				Site site(char kind) {
+						int id = next++;
+						if(recording) {
+								Site site = new Site(kind);
+								sites.add(site);
+								return site;
+						}
+						Site site = id < sites.size() ? sites.get(id) : null;
+						return site != null && site.kind == kind ? site : null;
+				}
+
+				List<Stmt> statements(List<Stmt> statements) {
+						List<Stmt> rewritten = new ArrayList<>(statements.size());
+						for(Stmt s : statements) rewritten.add(statement(s));
+						return rewritten;
+				}
+
+				Stmt statement(Stmt stmt) {
+						if(stmt == null) return null;
+						if(stmt instanceof Stmt.Expression) {
+								Stmt.Expression expression = (Stmt.Expression) stmt;
+								expression.expression = expression(expression.expression);
+						}
+						else if(stmt instanceof Stmt.Print) {
+								Stmt.Print print = (Stmt.Print) stmt;
+								print.expression = expression(print.expression);
+						}
+						else if(stmt instanceof Stmt.Var) {
+								Stmt.Var var = (Stmt.Var) stmt;
+								var.initializer = expression(var.initializer);
+						}
+						else if(stmt instanceof Stmt.Block) {
+								Stmt.Block block = (Stmt.Block) stmt;
+								block.statements = statements(block.statements);
+						}
+						else if(stmt instanceof Stmt.If) {
+								Stmt.If branch = (Stmt.If) stmt;
+								branch.condition = expression(branch.condition);
+								branch.thenBranch = statement(branch.thenBranch);
+								branch.elseBranch = statement(branch.elseBranch);
+						}
+						else if(stmt instanceof Stmt.While) {
+								return loop((Stmt.While) stmt);
+						}
+						else if(stmt instanceof Stmt.Break) {
+								Stmt.Break brk = (Stmt.Break) stmt;
+								brk.condition = expression(brk.condition);
+						}
+						else if(stmt instanceof Stmt.Function) {
+								function((Stmt.Function) stmt);
+						}
+						else if(stmt instanceof Stmt.Return) {
+								Stmt.Return ret = (Stmt.Return) stmt;
+								ret.value = expression(ret.value);
+						}
+						else if(stmt instanceof Stmt.Class) {
+								for(Stmt.Function method : ((Stmt.Class) stmt).methods) function(method);
+						}
+						else if(stmt instanceof Stmt.Yield) {
+								Stmt.Yield yield = (Stmt.Yield) stmt;
+								yield.value = expression(yield.value);
+						}
+						return stmt;
+				}
+
+				void function(Stmt.Function function) {
+						functions.put(function.name.lexeme + ":" + function.name.line, function);
+						if(!function.generator) function.body = statements(function.body);
+				}
+
+				Stmt loop(Stmt.While loop) {
+						Site site = site('l');
+						loop.condition = expression(loop.condition);
+						loop.body = statement(loop.body);
+						if(recording) {
+								loop.body = new LoopTrip(loop.body, site);
+								return new LoopEntry(loop, site);
+						}
+						if(site == null || site.entries == 0 || site.trips / site.entries < HOT_TRIPS) return loop;
+						if(!(loop.body instanceof Stmt.Block) || declares(loop.body)) return loop;
+						return new HotLoop(loop);
+				}
+
+				Expr expression(Expr expr) {
+						if(expr == null) return null;
+						if(expr instanceof Expr.Binary) {
+								Expr.Binary binary = (Expr.Binary) expr;
+								Site site = site('b');
+								binary.left = expression(binary.left);
+								binary.right = expression(binary.right);
+								if(recording) {
+										binary.left = new Tap(binary.left, site, LEFT);
+										binary.right = new Tap(binary.right, site, RIGHT);
+										return binary;
+								}
+								if(site == null || site.count < HOT) return binary;
+								if(site.left == NUMBER && site.right == NUMBER && arithmetic(binary.operator.type)) return new NumberBinary(binary);
+								if(site.left == STRING && site.right == STRING && binary.operator.type == TokenType.PLUS) return new StringConcat(binary);
+								return binary;
+						}
+						if(expr instanceof Expr.Get) {
+								Expr.Get get = (Expr.Get) expr;
+								Site site = site('g');
+								get.object = expression(get.object);
+								if(recording) {
+										get.object = new Tap(get.object, site, RECEIVER);
+										return get;
+								}
+								if(site == null || site.count < HOT || !site.monomorphic()) return get;
+								return new CachedGet(get, site.names.iterator().next());
+						}
+						if(expr instanceof Expr.Call) {
+								Expr.Call call = (Expr.Call) expr;
+								Site site = site('c');
+								call.callee = expression(call.callee);
+								call.arguments = expressions(call.arguments);
+								if(recording) {
+										call.callee = new Tap(call.callee, site, CALLEE);
+										return call;
+								}
+								if(site == null || site.count < HOT || !site.monomorphic()) return call;
+								DirectCall direct = new DirectCall(call);
+								calls.put(direct, site.names.iterator().next());
+								return direct;
+						}
+						if(expr instanceof Expr.Grouping) {
+								Expr.Grouping grouping = (Expr.Grouping) expr;
+								grouping.expression = expression(grouping.expression);
+						}
+						else if(expr instanceof Expr.Unary) {
+								Expr.Unary unary = (Expr.Unary) expr;
+								unary.right = expression(unary.right);
+						}
+						else if(expr instanceof Expr.Assign) {
+								Expr.Assign assign = (Expr.Assign) expr;
+								assign.value = expression(assign.value);
+						}
+						else if(expr instanceof Expr.Logical) {
+								Expr.Logical logical = (Expr.Logical) expr;
+								logical.left = expression(logical.left);
+								logical.right = expression(logical.right);
+						}
+						else if(expr instanceof Expr.Set) {
+								Expr.Set set = (Expr.Set) expr;
+								set.object = expression(set.object);
+								set.value = expression(set.value);
+						}
+						else if(expr instanceof Expr.Array) {
+								Expr.Array array = (Expr.Array) expr;
+								array.elements = expressions(array.elements);
+						}
+						else if(expr instanceof Expr.Index) {
+								Expr.Index index = (Expr.Index) expr;
+								index.object = expression(index.object);
+								index.index = expression(index.index);
+						}
+						else if(expr instanceof Expr.IndexSet) {
+								Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+								indexSet.object = expression(indexSet.object);
+								indexSet.index = expression(indexSet.index);
+								indexSet.value = expression(indexSet.value);
+						}
+						else if(expr instanceof Expr.Map) {
+								Expr.Map map = (Expr.Map) expr;
+								map.keys = expressions(map.keys);
+								map.values = expressions(map.values);
+						}
+						return expr;
+				}
+
+				List<Expr> expressions(List<Expr> expressions) {
+						List<Expr> rewritten = new ArrayList<>(expressions.size());
+						for(Expr e : expressions) rewritten.add(expression(e));
+						return rewritten;
+				}
+		}
+
+		// Whether a function or class is declared anywhere in stmt.
+		private static boolean declares(Stmt stmt) {
+				if(stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+				if(stmt instanceof Stmt.Block) {
+						for(Stmt s : ((Stmt.Block) stmt).statements) if(declares(s)) return true;
+				}
+				if(stmt instanceof Stmt.If) return declares(((Stmt.If) stmt).thenBranch) || declares(((Stmt.If) stmt).elseBranch);
+				if(stmt instanceof Stmt.While) return declares(((Stmt.While) stmt).body);
+				return false;
+		}
+
+		private static boolean arithmetic(TokenType type) {
+				switch(type) {
+						case PLUS: case MINUS: case STAR: case SLASH:
+						case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+								return true;
+						default:
+								return false;
+				}
+		}
+
+		private static int type(Object value) {
+				if(value instanceof Double) return NUMBER;
+				if(value instanceof String) return STRING;
+				if(value instanceof Boolean) return BOOLEAN;
+				if(value == null) return NIL;
+				if(value instanceof LoxInstance) return INSTANCE;
+				return OTHER;
+		}
+
+		// "name:line" of a Lox function, like its profiler label, otherwise the
+		// kind and name of the callee.
+		private static String target(Object callee) {
+				if(callee instanceof LoxFunction) return ((LoxFunction) callee).label();
+				if(callee instanceof LoxClass) return "class:" + ((LoxClass) callee).name;
+				if(callee instanceof NativeFunction) return "native:" + ((NativeFunction) callee).name();
+				return "?";
+		}
+
+		private static String hex(byte[] bytes) {
+				StringBuilder builder = new StringBuilder();
+				for(byte b : bytes) builder.append(String.format("%02x", b));
+				return builder.toString();
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T cast(Object value) {
+				return (T) value;
+		}
+}
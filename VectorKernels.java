@@ -0,0 +1,51 @@
+// Bulk operations behind LoxVector. The out arrays have the length of the
+// inputs, which LoxVector has already checked to agree.
+public interface VectorKernels {
+		void add(double[] a, double[] b, double[] out);
+		void mul(double[] a, double[] b, double[] out);
+		void scale(double[] a, double k, double[] out);
+		double dot(double[] a, double[] b);
+		double sum(double[] a);
+		// out[i] is 1 where a[i] op b[i] holds and 0 elsewhere, op being one of
+		// LESS, GREATER or EQUAL_EQUAL.
+		void compare(double[] a, double[] b, TokenType op, double[] out);
+
+		class Scalar implements VectorKernels {
+				@Override
+				public void add(double[] a, double[] b, double[] out) {
+						for(int i = 0; i < out.length; ++i) out[i] = a[i] + b[i];
+				}
+
+				@Override
+				public void mul(double[] a, double[] b, double[] out) {
+						for(int i = 0; i < out.length; ++i) out[i] = a[i] * b[i];
+				}
+
+				@Override
+				public void scale(double[] a, double k, double[] out) {
+						for(int i = 0; i < out.length; ++i) out[i] = a[i] * k;
+				}
+
+				@Override
+				public double dot(double[] a, double[] b) {
+						double sum = 0;
+						for(int i = 0; i < a.length; ++i) sum += a[i] * b[i];
+						return sum;
+				}
+
+				@Override
+				public double sum(double[] a) {
+						double sum = 0;
+						for(double x : a) sum += x;
+						return sum;
+				}
+
+				@Override
+				public void compare(double[] a, double[] b, TokenType op, double[] out) {
+						for(int i = 0; i < out.length; ++i) {
+								boolean holds = op == TokenType.LESS ? a[i] < b[i] : op == TokenType.GREATER ? a[i] > b[i] : a[i] == b[i];
+								out[i] = holds ? 1 : 0;
+						}
+				}
+		}
+}
@@ -0,0 +1,97 @@
+package jlox.bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The interpreter's classes live in the default package, which can't be
+// imported, and JMH refuses benchmarks in the default package. This bridge
+// looks them up once and calls them through constant method handles.
+final class Jlox {
+		private static final PrintStream NULL = new PrintStream(OutputStream.nullOutputStream());
+
+		private static final MethodHandle NEW_LOX;
+		private static final MethodHandle NEW_TOKENIZER;
+		private static final MethodHandle SCAN_TOKENS;
+		private static final MethodHandle NEW_PARSER;
+		private static final MethodHandle PARSE;
+		private static final MethodHandle NEW_RESOLVER;
+		private static final MethodHandle RESOLVE;
+		private static final MethodHandle COMPILE;
+		private static final MethodHandle RUN;
+
+		static {
+				try {
+						Class<?> lox = Class.forName("Lox");
+						Class<?> program = Class.forName("Program");
+						Class<?> tokenizer = Class.forName("Tokenizer");
+						Class<?> parser = Class.forName("Parser");
+						Class<?> resolver = Class.forName("Resolver");
+
+						NEW_LOX = constructor(lox, InputStream.class, PrintStream.class, PrintStream.class, Path.class);
+						NEW_TOKENIZER = constructor(tokenizer, String.class, lox);
+						SCAN_TOKENS = method(tokenizer, "scanTokens");
+						NEW_PARSER = constructor(parser, List.class, lox);
+						PARSE = method(parser, "parse");
+						NEW_RESOLVER = constructor(resolver, Map.class, PrintStream.class);
+						RESOLVE = method(resolver, "resolve", List.class);
+						COMPILE = method(lox, "compile", String.class);
+						RUN = method(lox, "run", program);
+				}
+				catch(ReflectiveOperationException e) {
+						throw new ExceptionInInitializerError(e);
+				}
+		}
+
+		private Jlox() {}
+
+		// An isolate whose output is discarded.
+		static Object newLox() throws Throwable {
+				return NEW_LOX.invoke(InputStream.nullInputStream(), NULL, NULL, Paths.get(""));
+		}
+
+		static List<?> tokenize(Object lox, String source) throws Throwable {
+				return (List<?>) SCAN_TOKENS.invoke(NEW_TOKENIZER.invoke(source, lox));
+		}
+
+		static List<?> parse(Object lox, List<?> tokens) throws Throwable {
+				return (List<?>) PARSE.invoke(NEW_PARSER.invoke(tokens, lox));
+		}
+
+		static Map<?, ?> resolve(List<?> statements) throws Throwable {
+				Map<Object, Integer> locals = new HashMap<>();
+				RESOLVE.invoke(NEW_RESOLVER.invoke(locals, NULL), statements);
+				return locals;
+		}
+
+		static Object compile(Object lox, String source) throws Throwable {
+				Object program = COMPILE.invoke(lox, source);
+				if(program == null) throw new IllegalArgumentException("workload doesn't compile");
+				return program;
+		}
+
+		static int run(Object lox, Object program) throws Throwable {
+				return (int) RUN.invoke(lox, program);
+		}
+
+		private static MethodHandle constructor(Class<?> type, Class<?>... parameters) throws ReflectiveOperationException {
+				Constructor<?> constructor = type.getDeclaredConstructor(parameters);
+				constructor.setAccessible(true);
+				return MethodHandles.lookup().unreflectConstructor(constructor);
+		}
+
+		private static MethodHandle method(Class<?> type, String name, Class<?>... parameters) throws ReflectiveOperationException {
+				Method method = type.getDeclaredMethod(name, parameters);
+				method.setAccessible(true);
+				return MethodHandles.lookup().unreflect(method);
+		}
+}
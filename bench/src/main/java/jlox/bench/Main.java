@@ -0,0 +1,18 @@
+package jlox.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs JMH with the usual command line options and the GC profiler always on,
+// so every result comes with allocation rates (gc.alloc.rate.norm is bytes
+// per operation).
+public class Main {
+		public static void main(String[] args) throws Exception {
+				new Runner(new OptionsBuilder()
+						.parent(new CommandLineOptions(args))
+						.addProfiler(GCProfiler.class)
+						.build()).run();
+		}
+}
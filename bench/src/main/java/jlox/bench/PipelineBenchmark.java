@@ -0,0 +1,77 @@
+package jlox.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each stage of the pipeline measured on its own, with the input it needs
+// prepared by the stages before it during setup.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PipelineBenchmark {
+		@Param({"fib", "binary_trees", "method_calls", "strings", "closures"})
+		public String workload;
+
+		private String source;
+		private Object lox;
+		private List<?> tokens;
+		private List<?> statements;
+		private Object program;
+
+		@Setup(Level.Trial)
+		public void setup() throws Throwable {
+				source = read("workloads/" + workload + ".lox");
+				lox = Jlox.newLox();
+				tokens = Jlox.tokenize(lox, source);
+				statements = Jlox.parse(lox, tokens);
+				program = Jlox.compile(lox, source);
+		}
+
+		@Benchmark
+		public List<?> tokenize() throws Throwable {
+				return Jlox.tokenize(lox, source);
+		}
+
+		@Benchmark
+		public List<?> parse() throws Throwable {
+				return Jlox.parse(lox, tokens);
+		}
+
+		@Benchmark
+		public Map<?, ?> resolve() throws Throwable {
+				return Jlox.resolve(statements);
+		}
+
+		// A fresh isolate each time, so globals from the previous run don't carry over.
+		@Benchmark
+		public int interpret() throws Throwable {
+				return Jlox.run(Jlox.newLox(), program);
+		}
+
+		private static String read(String resource) throws IOException {
+				try(InputStream in = PipelineBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+						if(in == null) throw new IOException("missing workload " + resource);
+						return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+				}
+		}
+}
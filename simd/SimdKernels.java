@@ -0,0 +1,80 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorKernels on the incubating Vector API. Needs
+// --add-modules jdk.incubator.vector both to compile and to run; LoxVector
+// falls back to the scalar kernels when this class can't be loaded.
+public class SimdKernels implements VectorKernels {
+		private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+		@Override
+		public void add(double[] a, double[] b, double[] out) {
+				int i = 0;
+				for(int bound = SPECIES.loopBound(out.length); i < bound; i += SPECIES.length()) {
+						DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+				}
+				for(; i < out.length; ++i) out[i] = a[i] + b[i];
+		}
+
+		@Override
+		public void mul(double[] a, double[] b, double[] out) {
+				int i = 0;
+				for(int bound = SPECIES.loopBound(out.length); i < bound; i += SPECIES.length()) {
+						DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+				}
+				for(; i < out.length; ++i) out[i] = a[i] * b[i];
+		}
+
+		@Override
+		public void scale(double[] a, double k, double[] out) {
+				int i = 0;
+				for(int bound = SPECIES.loopBound(out.length); i < bound; i += SPECIES.length()) {
+						DoubleVector.fromArray(SPECIES, a, i).mul(k).intoArray(out, i);
+				}
+				for(; i < out.length; ++i) out[i] = a[i] * k;
+		}
+
+		// Rounds every product like the scalar kernel does, rather than fusing
+		// it with the addition.
+		@Override
+		public double dot(double[] a, double[] b) {
+				DoubleVector sums = DoubleVector.zero(SPECIES);
+				int i = 0;
+				for(int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+						sums = DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).add(sums);
+				}
+				double sum = sums.reduceLanes(VectorOperators.ADD);
+				for(; i < a.length; ++i) sum += a[i] * b[i];
+				return sum;
+		}
+
+		@Override
+		public double sum(double[] a) {
+				DoubleVector sums = DoubleVector.zero(SPECIES);
+				int i = 0;
+				for(int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+						sums = sums.add(DoubleVector.fromArray(SPECIES, a, i));
+				}
+				double sum = sums.reduceLanes(VectorOperators.ADD);
+				for(; i < a.length; ++i) sum += a[i];
+				return sum;
+		}
+
+		@Override
+		public void compare(double[] a, double[] b, TokenType op, double[] out) {
+				VectorOperators.Comparison comparison = op == TokenType.LESS ? VectorOperators.LT
+						: op == TokenType.GREATER ? VectorOperators.GT : VectorOperators.EQ;
+				DoubleVector zeros = DoubleVector.zero(SPECIES);
+				int i = 0;
+				for(int bound = SPECIES.loopBound(out.length); i < bound; i += SPECIES.length()) {
+						VectorMask<Double> mask = DoubleVector.fromArray(SPECIES, a, i).compare(comparison, DoubleVector.fromArray(SPECIES, b, i));
+						zeros.blend(1.0, mask).intoArray(out, i);
+				}
+				for(; i < out.length; ++i) {
+						boolean holds = op == TokenType.LESS ? a[i] < b[i] : op == TokenType.GREATER ? a[i] > b[i] : a[i] == b[i];
+						out[i] = holds ? 1 : 0;
+				}
+		}
+}